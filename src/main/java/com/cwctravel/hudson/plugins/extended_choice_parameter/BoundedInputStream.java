@@ -0,0 +1,98 @@
+/*
+ *Copyright (c) 2013 Costco, Vimil Saju
+ *See the file license.txt for copying permission.
+ */
+
+package com.cwctravel.hudson.plugins.extended_choice_parameter;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * An input stream that ends after <code>maxBytes</code> bytes, so that a source cannot read more than its
+ * {@link ChoiceBudget} into memory, not even as a single huge line or property value. It records whether the
+ * underlying stream had more to offer, so that the choice it was cut off in can be left out and the truncation
+ * reported.
+ */
+final class BoundedInputStream extends FilterInputStream {
+	private long remaining;
+
+	private boolean cut;
+
+	BoundedInputStream(InputStream in, long maxBytes) {
+		super(in);
+		this.remaining = maxBytes;
+	}
+
+	/**
+	 * Whether the stream was cut off before the underlying stream ended.
+	 */
+	boolean isCut() {
+		return cut;
+	}
+
+	@Override
+	public int read() throws IOException {
+		if(!hasRemaining()) {
+			return -1;
+		}
+		int b = in.read();
+		if(b >= 0) {
+			remaining--;
+		}
+		return b;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if(len == 0) {
+			return 0;
+		}
+		if(!hasRemaining()) {
+			return -1;
+		}
+		int read = in.read(b, off, (int) Math.min(len, remaining));
+		if(read > 0) {
+			remaining -= read;
+		}
+		return read;
+	}
+
+	@Override
+	public long skip(long n) throws IOException {
+		long skipped = in.skip(Math.min(n, remaining));
+		remaining -= skipped;
+		return skipped;
+	}
+
+	@Override
+	public int available() throws IOException {
+		return (int) Math.min(in.available(), remaining);
+	}
+
+	@Override
+	public boolean markSupported() {
+		return false;
+	}
+
+	@Override
+	public synchronized void mark(int readlimit) {
+	}
+
+	@Override
+	public synchronized void reset() throws IOException {
+		throw new IOException("mark/reset not supported");
+	}
+
+	private boolean hasRemaining() throws IOException {
+		if(remaining > 0) {
+			return true;
+		}
+		// look one byte further to tell a cut from a stream that ends exactly at the limit
+		if(!cut && in.read() >= 0) {
+			cut = true;
+		}
+		return false;
+	}
+}
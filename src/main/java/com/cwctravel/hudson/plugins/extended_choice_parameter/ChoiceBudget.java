@@ -0,0 +1,474 @@
+/*
+ *Copyright (c) 2013 Costco, Vimil Saju
+ *See the file license.txt for copying permission.
+ */
+
+package com.cwctravel.hudson.plugins.extended_choice_parameter;
+
+import hudson.model.AbstractProject;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import jenkins.model.Jenkins;
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+
+/**
+ * Memory budgets for reading choices, enforced while the choices are streamed so that a runaway command, query or
+ * file cannot fill the heap:
+ * <ul>
+ * <li>a single source returns at most <code>maxChoices</code> choices (100000 by default) taking at most
+ * <code>maxSourceBytes</code> (16 MB by default); a source reads at most half as many bytes of input, since every
+ * character takes two bytes, so that a single huge line, property value or column value is cut off as well</li>
+ * <li>all choices in memory, whether they are being read, cached by {@link ChoiceSourceCache}, kept by a
+ * {@link ChoiceSourceCircuitBreaker} to serve during an outage, or published in a {@link ChoiceSnapshot}, take at
+ * most <code>maxTotalBytes</code> (256 MB by default)</li>
+ * </ul>
+ * The limits are system properties prefixed with <code>com.cwctravel.hudson.plugins.extended_choice_parameter.ChoiceBudget.</code>.
+ * A source that exceeds a budget is truncated to the choices read so far, which is logged and listed on the
+ * management page together with the estimated resident size of the cached choices.
+ * <p>
+ * The choices held outside of reads are tracked as an estimate: the last measurement plus everything read since.
+ * When a read would take the estimate over <code>maxTotalBytes</code>, the choices are measured again; if they
+ * still take too much, the source cache and the last good choices of the circuit breakers, which only save backend
+ * calls, are dropped. Only if that does not free enough is the read truncated.
+ * <p>
+ * Sizes are estimates of the heap taken by the strings: their characters plus a fixed overhead per entry.
+ */
+public final class ChoiceBudget {
+	private static final Logger LOG = Logger.getLogger(ChoiceBudget.class.getName());
+
+	private static final int MAX_CHOICES = Math.min(Integer.getInteger(ChoiceBudget.class.getName() + ".maxChoices",
+			100000), Integer.MAX_VALUE - 1);
+
+	private static final long MAX_SOURCE_BYTES = Long.getLong(ChoiceBudget.class.getName() + ".maxSourceBytes",
+			16L * 1024 * 1024);
+
+	private static final long MAX_TOTAL_BYTES = Long.getLong(ChoiceBudget.class.getName() + ".maxTotalBytes",
+			256L * 1024 * 1024);
+
+	// object header, length, hash and array header of a string plus the reference to it
+	private static final int ENTRY_OVERHEAD = 48;
+
+	private static final long WARNING_INTERVAL = 10 * 60 * 1000L;
+
+	private static final int MAX_TRUNCATIONS = 256;
+
+	// reclaiming walks every parameter, so a budget that stays exceeded is not measured again on every read
+	private static final long RECLAIM_INTERVAL = 1000;
+
+	private static final AtomicLong IN_FLIGHT = new AtomicLong();
+
+	private static final AtomicLong RETAINED = new AtomicLong();
+
+	private static long lastReclaim;
+
+	private static final ConcurrentMap<String, Truncation> TRUNCATIONS = new ConcurrentHashMap<String, Truncation>();
+
+	private ChoiceBudget() {
+	}
+
+	public static int getMaxChoices() {
+		return MAX_CHOICES;
+	}
+
+	public static long getMaxSourceBytes() {
+		return MAX_SOURCE_BYTES;
+	}
+
+	/**
+	 * The most a source may read from a command's output, a file or a column, before it is split into choices.
+	 */
+	static long getMaxInputBytes() {
+		return MAX_SOURCE_BYTES / 2;
+	}
+
+	public static long getMaxTotalBytes() {
+		return MAX_TOTAL_BYTES;
+	}
+
+	/**
+	 * Bytes held by the sources that are being read right now.
+	 */
+	public static long getInFlightBytes() {
+		return IN_FLIGHT.get();
+	}
+
+	/**
+	 * Estimated bytes held by the choices that were read and kept in memory.
+	 */
+	public static long getRetainedBytes() {
+		return RETAINED.get();
+	}
+
+	static long sizeOf(String value) {
+		return ENTRY_OVERHEAD + 2L * value.length();
+	}
+
+	static long sizeOf(String[] values) {
+		long size = 16;
+		for(String value: values) {
+			size += value == null ? 4 : sizeOf(value);
+		}
+		return size;
+	}
+
+	static long sizeOf(List<String> values) {
+		long size = 16;
+		for(String value: values) {
+			size += sizeOf(value);
+		}
+		return size;
+	}
+
+	/**
+	 * The limit to pass to {@link ChoiceSource#open}: one more than the budget, so that exceeding it can be noticed.
+	 */
+	static int sourceLimit(int limit) {
+		return Math.min(limit, MAX_CHOICES + 1);
+	}
+
+	/**
+	 * Reads the choices of <code>iterator</code> within the budgets and closes it.
+	 */
+	static List<String> collect(ChoiceIterator iterator, String sourceKey) throws IOException {
+		List<String> result = new ArrayList<String>();
+		Allocation allocation = new Allocation(sourceKey);
+		try {
+			String choice;
+			while((choice = iterator.next()) != null && allocation.add(sizeOf(choice))) {
+				result.add(choice);
+			}
+			if(iterator instanceof ChoiceIterators.LineChoiceIterator
+					&& ((ChoiceIterators.LineChoiceIterator) iterator).isTruncated()) {
+				allocation.exceed(String.format("more than %d bytes of input", getMaxInputBytes()));
+			}
+		}
+		finally {
+			try {
+				iterator.close();
+			}
+			finally {
+				allocation.release();
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Accounts for the entries read from one source. {@link #release} must be called once reading is over.
+	 */
+	static final class Allocation {
+		private final String sourceKey;
+
+		private int count;
+
+		private long bytes;
+
+		private String exceeded;
+
+		Allocation(String sourceKey) {
+			this.sourceKey = sourceKey;
+		}
+
+		/**
+		 * Returns false, leaving the entry out, if it does not fit into the budgets.
+		 */
+		boolean add(long size) {
+			if(exceeded != null) {
+				return false;
+			}
+			if(count >= MAX_CHOICES) {
+				exceeded = String.format("more than %d choices", MAX_CHOICES);
+				return false;
+			}
+			if(bytes + size > MAX_SOURCE_BYTES) {
+				exceeded = String.format("more than %d bytes", MAX_SOURCE_BYTES);
+				return false;
+			}
+			if(IN_FLIGHT.addAndGet(size) + RETAINED.get() > MAX_TOTAL_BYTES) {
+				IN_FLIGHT.addAndGet(-size);
+				if(!reclaim(size)) {
+					exceeded = String.format("all choices together holding more than %d bytes", MAX_TOTAL_BYTES);
+					return false;
+				}
+				IN_FLIGHT.addAndGet(size);
+			}
+			count++;
+			bytes += size;
+			return true;
+		}
+
+		void exceed(String reason) {
+			if(exceeded == null) {
+				exceeded = reason;
+			}
+		}
+
+		/**
+		 * Ends the read; the choices read are from now on counted as retained until the next measurement.
+		 */
+		void release() {
+			IN_FLIGHT.addAndGet(-bytes);
+			RETAINED.addAndGet(bytes);
+			if(exceeded != null) {
+				truncated(sourceKey == null ? "(unknown)" : sourceKey, count, bytes, exceeded);
+			}
+		}
+	}
+
+	/**
+	 * Measures the choices kept in memory, since the estimate also counts lists that were replaced in the meantime,
+	 * and if they still take too much drops the ones that are only kept to save backend calls. Returns whether
+	 * <code>size</code> more bytes fit into the total budget now.
+	 */
+	private static synchronized boolean reclaim(long size) {
+		long now = System.currentTimeMillis();
+		if(now - lastReclaim >= RECLAIM_INTERVAL) {
+			lastReclaim = now;
+			RETAINED.set(measureRetained());
+			if(!fits(size)) {
+				ChoiceSourceCache.evictAll();
+				ChoiceSourceCircuitBreaker.evictLastGoodChoices();
+				RETAINED.set(measureRetained());
+				LOG.log(Level.INFO, "Choices took more than {0} bytes, dropped the cached ones, {1} bytes are left",
+						new Object[] { MAX_TOTAL_BYTES, RETAINED.get() });
+			}
+		}
+		return fits(size);
+	}
+
+	private static boolean fits(long size) {
+		return IN_FLIGHT.get() + RETAINED.get() + size <= MAX_TOTAL_BYTES;
+	}
+
+	/**
+	 * Bytes held by all choices kept in memory, counting every list once even when the caches and snapshots share it.
+	 */
+	private static long measureRetained() {
+		Map<List<String>, Boolean> lists = new IdentityHashMap<List<String>, Boolean>();
+		for(List<String> choices: ChoiceSourceCache.getCachedChoices()) {
+			lists.put(choices, Boolean.TRUE);
+		}
+		for(List<String> choices: ChoiceSourceCircuitBreaker.getLastGoodChoicesOfAll()) {
+			lists.put(choices, Boolean.TRUE);
+		}
+		long bytes = 0;
+		Jenkins jenkins = Jenkins.getInstance();
+		if(jenkins != null) {
+			for(AbstractProject<?, ?> project: jenkins.getAllItems(AbstractProject.class)) {
+				for(ExtendedChoiceParameterDefinition definition: ExtendedChoiceParametersAction.parameterDefinitions(project)) {
+					ChoiceSnapshot snapshot = definition.getCachedChoiceSnapshot();
+					if(snapshot != null) {
+						lists.put(snapshot.getResolvedChoices(), Boolean.TRUE);
+						bytes += sizeOf(snapshot.getDefaultValues());
+					}
+					MultiLevelChoicePayload payload = definition.getCachedMultiLevelChoicePayload();
+					if(payload != null) {
+						bytes += payload.getResidentSize();
+					}
+				}
+			}
+		}
+		for(List<String> choices: lists.keySet()) {
+			bytes += sizeOf(choices);
+		}
+		return bytes;
+	}
+
+	/**
+	 * Records that <code>sourceKey</code> was cut short after <code>count</code> entries taking <code>bytes</code>.
+	 */
+	static void truncated(String sourceKey, int count, long bytes, String reason) {
+		Truncation truncation = new Truncation(sourceKey, System.currentTimeMillis(), count, bytes, reason);
+		Truncation previous = TRUNCATIONS.get(sourceKey);
+		if(previous != null || TRUNCATIONS.size() < MAX_TRUNCATIONS) {
+			TRUNCATIONS.put(sourceKey, truncation);
+		}
+		boolean repeated = previous != null && truncation.timestamp - previous.timestamp < WARNING_INTERVAL;
+		LOG.log(repeated ? Level.FINE : Level.WARNING, "Choice source {0} was truncated to {1} choices ({2} bytes): {3}",
+				new Object[] { sourceKey, count, bytes, reason });
+	}
+
+	/**
+	 * The sources truncated recently, most recent first.
+	 */
+	public static List<Truncation> getTruncations() {
+		List<Truncation> result = new ArrayList<Truncation>(TRUNCATIONS.values());
+		Collections.sort(result, new Comparator<Truncation>() {
+			public int compare(Truncation truncation1, Truncation truncation2) {
+				long timestamp1 = truncation1.timestamp;
+				long timestamp2 = truncation2.timestamp;
+				return timestamp1 < timestamp2 ? 1 : (timestamp1 == timestamp2 ? 0 : -1);
+			}
+		});
+		return result;
+	}
+
+	/**
+	 * The last time a source exceeded a budget.
+	 */
+	public static final class Truncation {
+		private final String sourceKey;
+
+		private final long timestamp;
+
+		private final int choices;
+
+		private final long bytes;
+
+		private final String reason;
+
+		Truncation(String sourceKey, long timestamp, int choices, long bytes, String reason) {
+			this.sourceKey = sourceKey;
+			this.timestamp = timestamp;
+			this.choices = choices;
+			this.bytes = bytes;
+			this.reason = reason;
+		}
+
+		public String getSourceKey() {
+			return sourceKey;
+		}
+
+		public long getTimestamp() {
+			return timestamp;
+		}
+
+		public Date getTimestampDate() {
+			return new Date(timestamp);
+		}
+
+		public int getChoices() {
+			return choices;
+		}
+
+		public long getBytes() {
+			return bytes;
+		}
+
+		public String getReason() {
+			return reason;
+		}
+
+		public JSONObject toJSON() {
+			JSONObject result = new JSONObject();
+			result.put("source", sourceKey);
+			result.put("timestamp", timestamp);
+			result.put("choices", choices);
+			result.put("bytes", bytes);
+			result.put("reason", reason);
+			return result;
+		}
+	}
+
+	/**
+	 * Estimated resident size of one kind of cached choices.
+	 */
+	public static final class Usage {
+		private final String category;
+
+		private int entries;
+
+		private long bytes;
+
+		Usage(String category) {
+			this.category = category;
+		}
+
+		void add(long size) {
+			entries++;
+			bytes += size;
+		}
+
+		public String getCategory() {
+			return category;
+		}
+
+		public int getEntries() {
+			return entries;
+		}
+
+		public long getBytes() {
+			return bytes;
+		}
+
+		public JSONObject toJSON() {
+			JSONObject result = new JSONObject();
+			result.put("category", category);
+			result.put("entries", entries);
+			result.put("bytes", bytes);
+			return result;
+		}
+	}
+
+	/**
+	 * Walks the caches and every extended choice parameter to estimate how much memory their choices take. Lists
+	 * shared between the source cache, the circuit breakers and the snapshots are counted in every category.
+	 */
+	public static List<Usage> measure() {
+		Usage sourceCache = new Usage("Source cache");
+		for(List<String> choices: ChoiceSourceCache.getCachedChoices()) {
+			sourceCache.add(sizeOf(choices));
+		}
+
+		Usage lastGood = new Usage("Last good choices of circuit breakers");
+		for(List<String> choices: ChoiceSourceCircuitBreaker.getLastGoodChoicesOfAll()) {
+			lastGood.add(sizeOf(choices));
+		}
+
+		Usage snapshots = new Usage("Parameter snapshots");
+		Usage multiLevel = new Usage("Multi-level trees and payloads");
+		for(AbstractProject<?, ?> project: Jenkins.getInstance().getAllItems(AbstractProject.class)) {
+			for(ExtendedChoiceParameterDefinition definition: ExtendedChoiceParametersAction.parameterDefinitions(project)) {
+				ChoiceSnapshot snapshot = definition.getCachedChoiceSnapshot();
+				if(snapshot != null) {
+					snapshots.add(sizeOf(snapshot.getChoices()) + sizeOf(snapshot.getDefaultValues()));
+				}
+				MultiLevelChoicePayload payload = definition.getCachedMultiLevelChoicePayload();
+				if(payload != null) {
+					multiLevel.add(payload.getResidentSize());
+				}
+			}
+		}
+
+		List<Usage> result = new ArrayList<Usage>();
+		result.add(sourceCache);
+		result.add(lastGood);
+		result.add(snapshots);
+		result.add(multiLevel);
+		return result;
+	}
+
+	public static JSONObject toJSON() {
+		JSONArray usage = new JSONArray();
+		for(Usage category: measure()) {
+			usage.add(category.toJSON());
+		}
+		JSONArray truncations = new JSONArray();
+		for(Truncation truncation: getTruncations()) {
+			truncations.add(truncation.toJSON());
+		}
+		JSONObject result = new JSONObject();
+		result.put("maxChoices", MAX_CHOICES);
+		result.put("maxSourceBytes", MAX_SOURCE_BYTES);
+		result.put("maxTotalBytes", MAX_TOTAL_BYTES);
+		result.put("inFlightBytes", getInFlightBytes());
+		result.put("retainedBytes", getRetainedBytes());
+		result.put("usage", usage);
+		result.put("truncations", truncations);
+		return result;
+	}
+}
@@ -0,0 +1,138 @@
+/*
+ *Copyright (c) 2013 Costco, Vimil Saju
+ *See the file license.txt for copying permission.
+ */
+
+package com.cwctravel.hudson.plugins.extended_choice_parameter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+
+/**
+ * The choices that appeared and disappeared between two {@link ChoiceSnapshot}s of a parameter. Instances are
+ * immutable.
+ * <p>
+ * At most {@link #MAX_LISTED} added and removed choices are kept, so that replacing a huge list does not pin it in
+ * the history; the counts are always exact.
+ */
+public final class ChoiceChange {
+	public static final int MAX_LISTED = Integer.getInteger(ChoiceChange.class.getName() + ".maxListed", 1000);
+
+	private final long fromVersion;
+
+	private final long toVersion;
+
+	private final long timestamp;
+
+	private final String[] added;
+
+	private final int addedCount;
+
+	private final String[] removed;
+
+	private final int removedCount;
+
+	private ChoiceChange(long fromVersion, long toVersion, long timestamp, String[] added, int addedCount,
+			String[] removed, int removedCount) {
+		this.fromVersion = fromVersion;
+		this.toVersion = toVersion;
+		this.timestamp = timestamp;
+		this.added = added;
+		this.addedCount = addedCount;
+		this.removed = removed;
+		this.removedCount = removedCount;
+	}
+
+	/**
+	 * Compares the choices of two snapshots, or returns null if the set of choices is the same, e.g. when only their
+	 * order or the default values changed. Both sides are walked once in sorted order.
+	 */
+	static ChoiceChange between(ChoiceSnapshot previous, ChoiceSnapshot current) {
+		String[] before = previous.getSortedChoices();
+		String[] after = current.getSortedChoices();
+
+		List<String> added = new ArrayList<String>();
+		List<String> removed = new ArrayList<String>();
+		int addedCount = 0;
+		int removedCount = 0;
+		int i = 0;
+		int j = 0;
+		while(i < before.length || j < after.length) {
+			int comparison = i == before.length ? 1 : (j == after.length ? -1 : before[i].compareTo(after[j]));
+			if(comparison < 0) {
+				if(removedCount++ < MAX_LISTED) {
+					removed.add(before[i]);
+				}
+				i++;
+			}
+			else if(comparison > 0) {
+				if(addedCount++ < MAX_LISTED) {
+					added.add(after[j]);
+				}
+				j++;
+			}
+			else {
+				i++;
+				j++;
+			}
+		}
+
+		if(addedCount == 0 && removedCount == 0) {
+			return null;
+		}
+		return new ChoiceChange(previous.getVersion(), current.getVersion(), current.getTimestamp(),
+				added.toArray(new String[added.size()]), addedCount, removed.toArray(new String[removed.size()]),
+				removedCount);
+	}
+
+	public long getFromVersion() {
+		return fromVersion;
+	}
+
+	public long getToVersion() {
+		return toVersion;
+	}
+
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+	/**
+	 * Choices that were added, in sorted order, at most {@link #MAX_LISTED} of them.
+	 */
+	public List<String> getAdded() {
+		return Collections.unmodifiableList(Arrays.asList(added));
+	}
+
+	public int getAddedCount() {
+		return addedCount;
+	}
+
+	/**
+	 * Choices that were removed, in sorted order, at most {@link #MAX_LISTED} of them.
+	 */
+	public List<String> getRemoved() {
+		return Collections.unmodifiableList(Arrays.asList(removed));
+	}
+
+	public int getRemovedCount() {
+		return removedCount;
+	}
+
+	public JSONObject toJSON() {
+		JSONObject result = new JSONObject();
+		result.put("fromVersion", fromVersion);
+		result.put("toVersion", toVersion);
+		result.put("timestamp", timestamp);
+		result.put("added", JSONArray.fromObject(added));
+		result.put("addedCount", addedCount);
+		result.put("removed", JSONArray.fromObject(removed));
+		result.put("removedCount", removedCount);
+		return result;
+	}
+}
@@ -0,0 +1,44 @@
+/*
+ *Copyright (c) 2013 Costco, Vimil Saju
+ *See the file license.txt for copying permission.
+ */
+
+package com.cwctravel.hudson.plugins.extended_choice_parameter;
+
+import hudson.ExtensionList;
+import hudson.ExtensionPoint;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import jenkins.model.Jenkins;
+
+/**
+ * Receives a {@link ChoiceChange} whenever the refreshed choices of an {@link ExtendedChoiceParameterDefinition}
+ * differ from the previous ones, e.g. to trigger a job when a new release branch shows up.
+ * <p>
+ * Changes are detected when the choices are refreshed, which happens when they are requested and the previous
+ * snapshot has expired, so there is no event until someone looks at the parameter. Listeners are called on the
+ * requesting thread and should return quickly.
+ */
+public abstract class ChoiceChangeListener implements ExtensionPoint {
+	private static final Logger LOG = Logger.getLogger(ChoiceChangeListener.class.getName());
+
+	public abstract void onChanged(ExtendedChoiceParameterDefinition definition, ChoiceChange change);
+
+	public static ExtensionList<ChoiceChangeListener> all() {
+		return Jenkins.getInstance().getExtensionList(ChoiceChangeListener.class);
+	}
+
+	static void fireChanged(ExtendedChoiceParameterDefinition definition, ChoiceChange change) {
+		for(ChoiceChangeListener listener: all()) {
+			try {
+				listener.onChanged(definition, change);
+			}
+			catch(RuntimeException e) {
+				LOG.log(Level.WARNING, String.format("%s failed to handle a change of parameter %s", listener,
+						definition.getName()), e);
+			}
+		}
+	}
+}
@@ -0,0 +1,289 @@
+/*
+ *Copyright (c) 2013 Costco, Vimil Saju
+ *See the file license.txt for copying permission.
+ */
+
+package com.cwctravel.hudson.plugins.extended_choice_parameter;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Splits configured choice lists and joins selected values.
+ * <p>
+ * Choices are read with the input delimiter (a comma unless configured otherwise). A choice that contains the
+ * delimiter can be written in double quotes, where <code>""</code> or <code>\"</code> stands for a quote and
+ * <code>\\</code> for a backslash. Outside of quotes a backslash is an ordinary character, so Windows and UNC paths
+ * need no escaping unless they are quoted. A quote that is not closed before the next delimiter is read literally.
+ * Empty choices are skipped.
+ * <p>
+ * Choice lists the plugin joins for itself quote a choice that contains the output delimiter the same way, so that
+ * it can be split again. Selected values are passed to the build joined as they are, as they always have been.
+ * <p>
+ * Tokenizing works directly on the input string: a choice is a substring of it unless it contains quotes or
+ * escapes, and no intermediate arrays are built.
+ */
+public final class ChoiceDelimiter implements Serializable {
+	private static final long serialVersionUID = -3177104618263470715L;
+
+	public static final ChoiceDelimiter DEFAULT = new ChoiceDelimiter(",", ",");
+
+	private static final char QUOTE = '"';
+
+	private static final char ESCAPE = '\\';
+
+	private final String inputDelimiter;
+
+	private final String outputDelimiter;
+
+	/**
+	 * Blank or null delimiters default to a comma.
+	 */
+	public ChoiceDelimiter(String inputDelimiter, String outputDelimiter) {
+		this.inputDelimiter = inputDelimiter == null || inputDelimiter.length() == 0 ? "," : inputDelimiter;
+		this.outputDelimiter = outputDelimiter == null || outputDelimiter.length() == 0 ? "," : outputDelimiter;
+	}
+
+	public String getInputDelimiter() {
+		return inputDelimiter;
+	}
+
+	/**
+	 * Iterates over the choices of <code>value</code>, at most <code>limit</code> of them.
+	 */
+	public ChoiceIterator tokenize(final String value, final int limit) {
+		return new ChoiceIterator() {
+			private final Tokenizer tokenizer = new Tokenizer(value);
+
+			private int count;
+
+			public String next() {
+				if(count >= limit) {
+					return null;
+				}
+				String choice = tokenizer.next();
+				if(choice != null) {
+					count++;
+				}
+				return choice;
+			}
+
+			public void close() {
+			}
+		};
+	}
+
+	/**
+	 * Returns the choices of <code>value</code> as a list.
+	 */
+	public List<String> split(String value) {
+		List<String> result = new ArrayList<String>();
+		Tokenizer tokenizer = new Tokenizer(value);
+		String choice;
+		while((choice = tokenizer.next()) != null) {
+			result.add(choice);
+		}
+		return result;
+	}
+
+	/**
+	 * Returns <code>value</code> without its last choice, for a value that was cut off in the middle of it.
+	 */
+	String withoutLastChoice(String value) {
+		Tokenizer tokenizer = new Tokenizer(value);
+		int start = 0;
+		while(tokenizer.position < value.length()) {
+			start = tokenizer.position;
+			tokenizer.read();
+		}
+		return value.substring(0, start);
+	}
+
+	/**
+	 * Joins <code>values</code> with the output delimiter into a list that {@link #split} reads back, quoting the
+	 * values that contain the delimiter.
+	 */
+	public String join(Collection<?> values) {
+		return join(values.iterator(), values.size() * 16, true);
+	}
+
+	/**
+	 * Joins selected values with the output delimiter as they are, which is the form a build receives them in.
+	 */
+	public String joinValues(Collection<?> values) {
+		return join(values.iterator(), values.size() * 16, false);
+	}
+
+	public String joinValues(Iterator<?> values) {
+		return join(values, 64, false);
+	}
+
+	private String join(Iterator<?> values, int capacity, boolean quote) {
+		StringBuilder result = new StringBuilder(capacity);
+		while(values.hasNext()) {
+			String value = String.valueOf(values.next());
+			if(quote) {
+				if(result.length() > 0) {
+					result.append(outputDelimiter);
+				}
+				append(result, value);
+			}
+			else {
+				appendValueTo(result, value);
+			}
+		}
+		return result.toString();
+	}
+
+	/**
+	 * Appends a selected value to a {@link #joinValues joined} string, preceded by the output delimiter unless it is
+	 * the first value.
+	 */
+	public StringBuilder appendValueTo(StringBuilder joined, String value) {
+		if(joined.length() > 0) {
+			joined.append(outputDelimiter);
+		}
+		return joined.append(value);
+	}
+
+	private StringBuilder append(StringBuilder joined, String value) {
+		if(value.indexOf(outputDelimiter) < 0 && (value.length() == 0 || value.charAt(0) != QUOTE)) {
+			return joined.append(value);
+		}
+		joined.append(QUOTE);
+		for(int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if(c == QUOTE) {
+				joined.append(QUOTE);
+			}
+			else if(c == ESCAPE) {
+				joined.append(ESCAPE);
+			}
+			joined.append(c);
+		}
+		return joined.append(QUOTE);
+	}
+
+	/**
+	 * Reads the choices of one string; a single instance can be {@link #reset} to read further strings, e.g. every
+	 * line of a command's output.
+	 */
+	final class Tokenizer {
+		private String value;
+
+		private int position;
+
+		private StringBuilder buffer;
+
+		Tokenizer(String value) {
+			reset(value);
+		}
+
+		void reset(String value) {
+			this.value = value;
+			this.position = 0;
+		}
+
+		/**
+		 * Returns the next non-empty choice, or null when there are no more.
+		 */
+		String next() {
+			while(value != null && position < value.length()) {
+				String choice = read();
+				if(choice.length() > 0) {
+					return choice;
+				}
+			}
+			return null;
+		}
+
+		/**
+		 * Reads one token and moves past the delimiter that ends it.
+		 */
+		private String read() {
+			int start = position;
+			int length = value.length();
+			if(value.charAt(start) == QUOTE) {
+				int end = closingQuote(start + 1);
+				if(end >= 0 && (end + 1 == length || value.startsWith(inputDelimiter, end + 1))) {
+					position = Math.min(end + 1 + inputDelimiter.length(), length);
+					return unquote(start + 1, end);
+				}
+				// not a well-formed quoted token, read the quote literally
+			}
+
+			int end = value.indexOf(inputDelimiter, start);
+			if(end < 0) {
+				end = length;
+			}
+			position = Math.min(end + inputDelimiter.length(), length);
+			return value.substring(start, end);
+		}
+
+		private int closingQuote(int from) {
+			for(int i = from; i < value.length(); i++) {
+				char c = value.charAt(i);
+				if(c == ESCAPE && i + 1 < value.length() && isEscapable(value.charAt(i + 1))) {
+					i++;
+				}
+				else if(c == QUOTE) {
+					if(i + 1 < value.length() && value.charAt(i + 1) == QUOTE) {
+						i++;
+					}
+					else {
+						return i;
+					}
+				}
+			}
+			return -1;
+		}
+
+		// within quotes "" and \" stand for a quote and \\ for a backslash
+		private String unquote(int start, int end) {
+			int escape = value.indexOf(ESCAPE, start);
+			if(value.indexOf(QUOTE, start) == end && (escape < 0 || escape > end)) {
+				return value.substring(start, end);
+			}
+			StringBuilder result = buffer();
+			for(int i = start; i < end; i++) {
+				char c = value.charAt(i);
+				if(c == QUOTE || (c == ESCAPE && isEscapable(value.charAt(i + 1)))) {
+					// keep the character that follows
+					i++;
+					c = value.charAt(i);
+				}
+				result.append(c);
+			}
+			return result.toString();
+		}
+
+		private boolean isEscapable(char c) {
+			return c == QUOTE || c == ESCAPE;
+		}
+
+		private StringBuilder buffer() {
+			if(buffer == null) {
+				buffer = new StringBuilder();
+			}
+			buffer.setLength(0);
+			return buffer;
+		}
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if(!(obj instanceof ChoiceDelimiter)) {
+			return false;
+		}
+		ChoiceDelimiter other = (ChoiceDelimiter) obj;
+		return inputDelimiter.equals(other.inputDelimiter) && outputDelimiter.equals(other.outputDelimiter);
+	}
+
+	@Override
+	public int hashCode() {
+		return inputDelimiter.hashCode() * 31 + outputDelimiter.hashCode();
+	}
+}
@@ -0,0 +1,56 @@
+/*
+ *Copyright (c) 2013 Costco, Vimil Saju
+ *See the file license.txt for copying permission.
+ */
+
+package com.cwctravel.hudson.plugins.extended_choice_parameter;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import net.sf.json.JSONArray;
+
+/**
+ * The last {@link ChoiceChange}s of a parameter, kept in memory in a ring buffer of
+ * <code>-Dcom.cwctravel.hudson.plugins.extended_choice_parameter.ChoiceHistory.size</code> entries (20 by default).
+ */
+final class ChoiceHistory {
+	private static final int SIZE = Math.max(Integer.getInteger(ChoiceHistory.class.getName() + ".size", 20), 1);
+
+	private final ChoiceChange[] changes = new ChoiceChange[SIZE];
+
+	private int count;
+
+	private int next;
+
+	synchronized void add(ChoiceChange change) {
+		changes[next] = change;
+		next = (next + 1) % changes.length;
+		if(count < changes.length) {
+			count++;
+		}
+	}
+
+	/**
+	 * Returns the recorded changes, newest first.
+	 */
+	synchronized List<ChoiceChange> getChanges() {
+		List<ChoiceChange> result = new ArrayList<ChoiceChange>(count);
+		for(int i = 1; i <= count; i++) {
+			result.add(changes[(next - i + changes.length) % changes.length]);
+		}
+		return result;
+	}
+
+	synchronized long getLatestVersion() {
+		return count == 0 ? 0 : changes[(next - 1 + changes.length) % changes.length].getToVersion();
+	}
+
+	JSONArray toJSON() {
+		JSONArray result = new JSONArray();
+		for(ChoiceChange change: getChanges()) {
+			result.add(change.toJSON());
+		}
+		return result;
+	}
+}
@@ -0,0 +1,23 @@
+/*
+ *Copyright (c) 2013 Costco, Vimil Saju
+ *See the file license.txt for copying permission.
+ */
+
+package com.cwctravel.hudson.plugins.extended_choice_parameter;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Streams the choices produced by a {@link ChoiceSource}, one at a time, so that large sources never have to be
+ * materialized as a single string. Callers may stop reading at any point and must always {@link #close()} the
+ * iterator to release the underlying process, connection or file.
+ */
+public interface ChoiceIterator extends Closeable {
+	/**
+	 * Returns the next choice, or null when the source is exhausted.
+	 *
+	 * @throws IOException if the source failed; choices returned so far should then be discarded
+	 */
+	String next() throws IOException;
+}
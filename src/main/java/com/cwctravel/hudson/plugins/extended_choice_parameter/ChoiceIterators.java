@@ -0,0 +1,149 @@
+/*
+ *Copyright (c) 2013 Costco, Vimil Saju
+ *See the file license.txt for copying permission.
+ */
+
+package com.cwctravel.hudson.plugins.extended_choice_parameter;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Building blocks for {@link ChoiceIterator} implementations.
+ */
+public final class ChoiceIterators {
+	private ChoiceIterators() {
+	}
+
+	/**
+	 * Base class for sources that produce lines, such as the output of a command or the rows of a query.
+	 * <p>
+	 * A source that stops reading at its {@link ChoiceBudget}, e.g. through a {@link BoundedInputStream}, reports
+	 * that with {@link #isCut()}. The last line it returned then ends in the middle of a choice, which is left out,
+	 * and the source is {@link #isTruncated() truncated}.
+	 */
+	public abstract static class LineChoiceIterator implements ChoiceIterator {
+		private final int limit;
+
+		private final Closeable resource;
+
+		private final ChoiceDelimiter delimiter;
+
+		// a single tokenizer is reset to every line
+		private final ChoiceDelimiter.Tokenizer tokenizer;
+
+		private int count;
+
+		// the line after the one being tokenized, read ahead to find the last line of a cut source
+		private String nextLine;
+
+		private boolean started;
+
+		private boolean truncated;
+
+		protected LineChoiceIterator(int limit, Closeable resource, ChoiceDelimiter delimiter) {
+			this.limit = limit;
+			this.resource = resource;
+			this.delimiter = delimiter;
+			this.tokenizer = delimiter.new Tokenizer(null);
+		}
+
+		/**
+		 * Returns the next line, or null when there are no more lines.
+		 */
+		protected abstract String readLine() throws IOException;
+
+		/**
+		 * Whether the source stopped reading at its budget rather than at its end. Only asked once
+		 * {@link #readLine()} returned null.
+		 */
+		protected boolean isCut() {
+			return false;
+		}
+
+		/**
+		 * Called once after the last line was read, e.g. to check the exit status of a process. Not called when the
+		 * source was cut.
+		 */
+		protected void finish() throws IOException {
+		}
+
+		/**
+		 * Whether the choices end early because the source was cut at its budget.
+		 */
+		public boolean isTruncated() {
+			return truncated;
+		}
+
+		public String next() throws IOException {
+			if(count >= limit) {
+				return null;
+			}
+			while(true) {
+				String choice = tokenizer.next();
+				if(choice != null) {
+					count++;
+					return choice;
+				}
+				String line = nextLine();
+				if(line == null) {
+					tokenizer.reset(null);
+					if(!truncated) {
+						finish();
+					}
+					count = limit;
+					return null;
+				}
+				tokenizer.reset(line);
+			}
+		}
+
+		private String nextLine() throws IOException {
+			String line = started ? nextLine : readLine();
+			started = true;
+			if(line == null) {
+				return null;
+			}
+			nextLine = readLine();
+			if(nextLine == null && isCut()) {
+				truncated = true;
+				line = delimiter.withoutLastChoice(line);
+			}
+			return line;
+		}
+
+		public void close() throws IOException {
+			if(resource != null) {
+				resource.close();
+			}
+		}
+	}
+
+	/**
+	 * Returns <code>value</code> as the only choice, or no choice if it is null or empty.
+	 */
+	public static ChoiceIterator singleton(final String value) {
+		return new ChoiceIterator() {
+			private boolean read;
+
+			public String next() {
+				if(read || value == null || value.length() == 0) {
+					return null;
+				}
+				read = true;
+				return value;
+			}
+
+			public void close() {
+			}
+		};
+	}
+
+	/**
+	 * Reads the choices of <code>iterator</code>, as many as the {@link ChoiceBudget} allows, and closes it.
+	 */
+	public static List<String> collect(ChoiceIterator iterator) throws IOException {
+		return ChoiceBudget.collect(iterator, null);
+	}
+}
@@ -0,0 +1,89 @@
+/*
+ *Copyright (c) 2013 Costco, Vimil Saju
+ *See the file license.txt for copying permission.
+ */
+
+package com.cwctravel.hudson.plugins.extended_choice_parameter;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.regex.Pattern;
+
+import org.apache.commons.lang.StringUtils;
+
+/**
+ * Compiles the choice filters of the sources: a comma separated list of globs, or a regular expression prefixed with
+ * <code>regex:</code>. Compiled patterns are shared between all parameters, up to 1024 distinct filters.
+ * <p>
+ * Plain globs, used for versions, have only <code>*</code>, which matches anything. Path globs, used for ref names,
+ * keep <code>*</code> and <code>?</code> within one path segment and let <code>**</code> span segments.
+ */
+final class ChoicePatterns {
+	private static final String REGEX_PREFIX = "regex:";
+
+	private static final int MAX_CACHED = 1024;
+
+	private static final ConcurrentMap<String, Pattern> GLOBS = new ConcurrentHashMap<String, Pattern>();
+
+	private static final ConcurrentMap<String, Pattern> PATH_GLOBS = new ConcurrentHashMap<String, Pattern>();
+
+	private ChoicePatterns() {
+	}
+
+	static Pattern compileGlobs(String filter) {
+		return compile(filter, false, GLOBS);
+	}
+
+	static Pattern compilePathGlobs(String filter) {
+		return compile(filter, true, PATH_GLOBS);
+	}
+
+	private static Pattern compile(String filter, boolean paths, ConcurrentMap<String, Pattern> patterns) {
+		Pattern pattern = patterns.get(filter);
+		if(pattern == null) {
+			if(filter.startsWith(REGEX_PREFIX)) {
+				pattern = Pattern.compile(filter.substring(REGEX_PREFIX.length()));
+			}
+			else {
+				StringBuilder regex = new StringBuilder();
+				for(String glob: StringUtils.split(filter, ',')) {
+					if(regex.length() > 0) {
+						regex.append('|');
+					}
+					appendGlob(regex, StringUtils.trim(glob), paths);
+				}
+				pattern = Pattern.compile(regex.toString());
+			}
+			if(patterns.size() < MAX_CACHED) {
+				patterns.put(filter, pattern);
+			}
+		}
+		return pattern;
+	}
+
+	private static void appendGlob(StringBuilder regex, String glob, boolean paths) {
+		regex.append("(?:");
+		for(int i = 0; i < glob.length(); i++) {
+			char c = glob.charAt(i);
+			if(c == '*') {
+				if(!paths) {
+					regex.append(".*");
+				}
+				else if(i + 1 < glob.length() && glob.charAt(i + 1) == '*') {
+					regex.append(".*");
+					i++;
+				}
+				else {
+					regex.append("[^/]*");
+				}
+			}
+			else if(c == '?' && paths) {
+				regex.append("[^/]");
+			}
+			else {
+				regex.append(Pattern.quote(String.valueOf(c)));
+			}
+		}
+		regex.append(')');
+	}
+}
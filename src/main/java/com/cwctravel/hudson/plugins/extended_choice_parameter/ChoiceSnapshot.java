@@ -0,0 +1,170 @@
+/*
+ *Copyright (c) 2013 Costco, Vimil Saju
+ *See the file license.txt for copying permission.
+ */
+
+package com.cwctravel.hudson.plugins.extended_choice_parameter;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+
+/**
+ * Resolved choices and default values of an {@link ExtendedChoiceParameterDefinition} at a point in time.
+ * Instances are immutable and can be shared between request threads.
+ */
+public final class ChoiceSnapshot {
+	private final List<String> choices;
+
+	// the list that was resolved, which the source cache and circuit breaker may hold as well
+	private final List<String> resolvedChoices;
+
+	private final List<String> defaultValues;
+
+	private final boolean resolved;
+
+	private final long generation;
+
+	private final long version;
+
+	private final long timestamp;
+
+	private final String eTag;
+
+	// sorted and de-duplicated choices, computed the first time the snapshot is compared to another one
+	private volatile String[] sortedChoices;
+
+	private ChoiceSnapshot(long generation, List<String> choices, List<String> defaultValues, boolean resolved,
+			long version, long timestamp, String eTag) {
+		this.generation = generation;
+		this.resolvedChoices = choices;
+		this.choices = Collections.unmodifiableList(choices);
+		this.resolved = resolved;
+		this.defaultValues = Collections.unmodifiableList(defaultValues);
+		this.version = version;
+		this.timestamp = timestamp;
+		this.eTag = eTag;
+	}
+
+	/**
+	 * Creates the snapshot that follows <code>previous</code>. The version is only bumped when the content changed,
+	 * so pollers keep getting the same ETag for as long as the choices stay the same. <code>choices</code> is null
+	 * when they could not be resolved, in which case the choices of <code>previous</code> are kept, with its version,
+	 * if they were resolved from the same configuration.
+	 */
+	static ChoiceSnapshot create(ChoiceSnapshot previous, ExtendedChoiceParameterConfig config, List<String> choices,
+			List<String> defaultValues, long timestamp) {
+		boolean resolved = choices != null;
+		if(!resolved) {
+			if(previous != null && previous.resolved && previous.generation == config.getGeneration()) {
+				return new ChoiceSnapshot(previous.generation, previous.resolvedChoices, previous.defaultValues, true,
+						previous.version, timestamp, previous.eTag);
+			}
+			choices = Collections.emptyList();
+		}
+		String eTag = computeETag(choices, defaultValues, resolved);
+		long version = 1;
+		if(previous != null) {
+			version = eTag.equals(previous.eTag) ? previous.version : previous.version + 1;
+		}
+		return new ChoiceSnapshot(config.getGeneration(), choices, defaultValues, resolved, version, timestamp, eTag);
+	}
+
+	/**
+	 * Generation of the {@link ExtendedChoiceParameterConfig} the choices were resolved from.
+	 */
+	public long getGeneration() {
+		return generation;
+	}
+
+	public List<String> getChoices() {
+		return choices;
+	}
+
+	List<String> getResolvedChoices() {
+		return resolvedChoices;
+	}
+
+	public List<String> getDefaultValues() {
+		return defaultValues;
+	}
+
+	/**
+	 * Returns false if the choice source failed and there was nothing to fall back to, in which case
+	 * {@link #getChoices()} is empty.
+	 */
+	public boolean isResolved() {
+		return resolved;
+	}
+
+	public long getVersion() {
+		return version;
+	}
+
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+	public String getETag() {
+		return eTag;
+	}
+
+	String[] getSortedChoices() {
+		String[] sorted = sortedChoices;
+		if(sorted == null) {
+			sorted = choices.toArray(new String[choices.size()]);
+			Arrays.sort(sorted);
+			int length = 0;
+			for(int i = 0; i < sorted.length; i++) {
+				if(length == 0 || !sorted[i].equals(sorted[length - 1])) {
+					sorted[length++] = sorted[i];
+				}
+			}
+			if(length < sorted.length) {
+				sorted = Arrays.copyOf(sorted, length);
+			}
+			sortedChoices = sorted;
+		}
+		return sorted;
+	}
+
+	public JSONObject toJSON(String name, String type) {
+		JSONObject result = new JSONObject();
+		result.put("name", name);
+		result.put("type", type);
+		result.put("version", version);
+		result.put("timestamp", timestamp);
+		result.put("resolved", resolved);
+		result.put("choices", JSONArray.fromObject(choices));
+		result.put("defaultValues", JSONArray.fromObject(defaultValues));
+		return result;
+	}
+
+	// a source that failed differs from one that returned no choices
+	private static String computeETag(List<String> choices, List<String> defaultValues, boolean resolved) {
+		long hash = 0xcbf29ce484222325L;
+		hash = hash(hash, choices);
+		hash = hash(hash, defaultValues);
+		hash = (hash ^ (resolved ? 1 : 0)) * 0x100000001b3L;
+		return "\"" + Long.toHexString(hash) + "\"";
+	}
+
+	// 64 bit FNV-1a over every character, with a separator after each entry so that ["ab"] and ["a","b"] differ
+	static long hash(long hash, List<String> values) {
+		for(String value: values) {
+			hash = hash(hash, value);
+			hash = (hash ^ 0xffff) * 0x100000001b3L;
+		}
+		return (hash ^ 0xfffe) * 0x100000001b3L;
+	}
+
+	static long hash(long hash, String value) {
+		for(int i = 0; i < value.length(); i++) {
+			hash = (hash ^ value.charAt(i)) * 0x100000001b3L;
+		}
+		return hash;
+	}
+}
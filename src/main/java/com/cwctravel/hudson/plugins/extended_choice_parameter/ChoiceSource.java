@@ -0,0 +1,99 @@
+/*
+ *Copyright (c) 2013 Costco, Vimil Saju
+ *See the file license.txt for copying permission.
+ */
+
+package com.cwctravel.hudson.plugins.extended_choice_parameter;
+
+import hudson.ExtensionList;
+import hudson.ExtensionPoint;
+import hudson.Util;
+
+import java.io.IOException;
+import java.util.UUID;
+
+import jenkins.model.Jenkins;
+
+/**
+ * Extension point for the backends an {@link ExtendedChoiceParameterDefinition} reads its choices from.
+ * <p>
+ * Sources are consulted in {@link hudson.Extension#ordinal()} order and the first one that
+ * {@link #isApplicable applies} to the configuration provides the choices, so the built-in sources keep the
+ * precedence they always had: property file, literal value, SSH command, local command and finally the database.
+ * Choices are streamed through a {@link ChoiceIterator} instead of being joined into one string.
+ */
+public abstract class ChoiceSource implements ExtensionPoint {
+	// cache keys are listed on the management page, so credentials are only ever part of them salted and digested
+	private static final String SALT = UUID.randomUUID().toString();
+
+	/**
+	 * The choices are part of the configuration itself.
+	 */
+	public static final int COST_NONE = 0;
+
+	/**
+	 * The choices are read from a local file or URL.
+	 */
+	public static final int COST_IO = 10;
+
+	/**
+	 * The choices are produced by forking a process.
+	 */
+	public static final int COST_PROCESS = 100;
+
+	/**
+	 * The choices are fetched from a remote host.
+	 */
+	public static final int COST_REMOTE = 1000;
+
+	/**
+	 * Returns true if this source provides the list described by <code>spec</code>.
+	 */
+	public abstract boolean isApplicable(ExtendedChoiceParameterConfig config, ChoiceSpec spec);
+
+	/**
+	 * Starts reading the choices. The returned iterator must not produce more than <code>limit</code> choices, which
+	 * lets sources stop reading early (e.g. by limiting a query) instead of having the caller discard the rest.
+	 */
+	public abstract ChoiceIterator open(ExtendedChoiceParameterConfig config, ChoiceSpec spec, int limit) throws IOException;
+
+	/**
+	 * Relative cost of a call to {@link #open}, one of the <code>COST_*</code> constants or anything in between.
+	 * Results of sources at or above {@link #COST_PROCESS} are shared through {@link ChoiceSourceCache}.
+	 */
+	public abstract int getCostHint(ExtendedChoiceParameterConfig config, ChoiceSpec spec);
+
+	/**
+	 * Key under which the result may be cached. Two configurations with the same key must produce the same choices,
+	 * which allows jobs that use the same command or query to share one result.
+	 */
+	public abstract String getCacheKey(ExtendedChoiceParameterConfig config, ChoiceSpec spec);
+
+	/**
+	 * Digest of the credentials a source logs in with, for its {@link #getCacheKey cache key}: the same user may see
+	 * different data once the password or key changes, and another key of the same user may not see it at all.
+	 */
+	protected static String digestOf(String... credentials) {
+		StringBuilder value = new StringBuilder(SALT);
+		for(String credential: credentials) {
+			value.append('\0').append(credential);
+		}
+		return Util.getDigestOf(value.toString());
+	}
+
+	public static ExtensionList<ChoiceSource> all() {
+		return Jenkins.getInstance().getExtensionList(ChoiceSource.class);
+	}
+
+	/**
+	 * Returns the source that provides the list described by <code>spec</code>, or null if none does.
+	 */
+	public static ChoiceSource find(ExtendedChoiceParameterConfig config, ChoiceSpec spec) {
+		for(ChoiceSource choiceSource: all()) {
+			if(choiceSource.isApplicable(config, spec)) {
+				return choiceSource;
+			}
+		}
+		return null;
+	}
+}
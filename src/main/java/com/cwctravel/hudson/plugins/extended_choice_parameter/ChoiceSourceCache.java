@@ -0,0 +1,148 @@
+/*
+ *Copyright (c) 2013 Costco, Vimil Saju
+ *See the file license.txt for copying permission.
+ */
+
+package com.cwctravel.hudson.plugins.extended_choice_parameter;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Shares the choices of expensive {@link ChoiceSource}s between all the parameters with the same
+ * {@link ChoiceSource#getCacheKey cache key}, so that a burst of page views runs a command or query only once.
+ * Entries expire after
+ * <code>-Dcom.cwctravel.hudson.plugins.extended_choice_parameter.ChoiceSourceCache.ttl</code> milliseconds
+ * (10 seconds by default, 0 disables the cache). Failures are never cached. While one request refreshes an expired
+ * entry, the others are served the expired choices rather than waiting for the backend.
+ * <p>
+ * Every source other than a literal value is called through a {@link ChoiceSourceCircuitBreaker}.
+ */
+final class ChoiceSourceCache {
+	private static final long TTL = Long.getLong(ChoiceSourceCache.class.getName() + ".ttl", 10000L);
+
+	private static final int PURGE_THRESHOLD = 256;
+
+	private static final ConcurrentMap<String, Entry> ENTRIES = new ConcurrentHashMap<String, Entry>();
+
+	private ChoiceSourceCache() {
+	}
+
+	private static final class Entry {
+		// held while the backend is called
+		private final ReentrantLock lock = new ReentrantLock();
+
+		// volatile so that the choices can be served and measured without waiting for a resolution in progress
+		private volatile List<String> choices;
+
+		private volatile long timestamp;
+	}
+
+	/**
+	 * Resolves the choices of <code>spec</code>, going through the cache when the source is expensive.
+	 */
+	static List<String> resolve(ExtendedChoiceParameterConfig config, ChoiceSpec spec, int limit) throws IOException {
+		long start = System.nanoTime();
+		List<String> choices = null;
+		boolean failure = true;
+		try {
+			choices = resolveSource(config, spec, limit);
+			failure = false;
+			return choices;
+		}
+		finally {
+			ChoiceSourceStatistics.getResolutions().record(start, choices == null ? 0 : choices.size(), failure);
+		}
+	}
+
+	private static List<String> resolveSource(ExtendedChoiceParameterConfig config, ChoiceSpec spec, int limit)
+			throws IOException {
+		ChoiceSource choiceSource = ChoiceSource.find(config, spec);
+		if(choiceSource == null) {
+			return null;
+		}
+		int costHint = choiceSource.getCostHint(config, spec);
+		if(costHint <= ChoiceSource.COST_NONE) {
+			return ChoiceBudget.collect(choiceSource.open(config, spec, ChoiceBudget.sourceLimit(limit)), choiceSource
+					.getClass().getName());
+		}
+
+		// the same command or query split with another delimiter yields other choices
+		String sourceKey = choiceSource.getClass().getName() + '\n' + config.getDelimiter().getInputDelimiter() + '\n'
+				+ choiceSource.getCacheKey(config, spec);
+		ChoiceSourceCircuitBreaker breaker = ChoiceSourceCircuitBreaker.forKey(sourceKey);
+		if(TTL <= 0 || costHint < ChoiceSource.COST_PROCESS) {
+			return breaker.call(choiceSource, config, spec, limit);
+		}
+
+		String key = sourceKey + '\n' + limit;
+		Entry entry = ENTRIES.get(key);
+		if(entry == null) {
+			purgeExpired();
+			Entry created = new Entry();
+			entry = ENTRIES.putIfAbsent(key, created);
+			if(entry == null) {
+				entry = created;
+			}
+		}
+
+		List<String> choices = entry.choices;
+		if(choices != null && System.currentTimeMillis() - entry.timestamp <= TTL) {
+			return choices;
+		}
+		if(choices == null) {
+			entry.lock.lock();
+		}
+		else if(!entry.lock.tryLock()) {
+			// another request is refreshing the entry
+			return choices;
+		}
+		try {
+			long now = System.currentTimeMillis();
+			if(entry.choices == null || now - entry.timestamp > TTL) {
+				choices = breaker.call(choiceSource, config, spec, limit);
+				entry.timestamp = now;
+				entry.choices = choices;
+			}
+			return entry.choices;
+		}
+		finally {
+			entry.lock.unlock();
+		}
+	}
+
+	static List<List<String>> getCachedChoices() {
+		List<List<String>> result = new ArrayList<List<String>>();
+		for(Entry entry: ENTRIES.values()) {
+			List<String> choices = entry.choices;
+			if(choices != null) {
+				result.add(choices);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Drops every cached list, to make room when the total {@link ChoiceBudget} is exceeded.
+	 */
+	static void evictAll() {
+		ENTRIES.clear();
+	}
+
+	private static void purgeExpired() {
+		if(ENTRIES.size() > PURGE_THRESHOLD) {
+			long now = System.currentTimeMillis();
+			for(Iterator<Entry> it = ENTRIES.values().iterator(); it.hasNext();) {
+				Entry entry = it.next();
+				if(entry.choices != null && now - entry.timestamp > TTL && !entry.lock.isLocked()) {
+					it.remove();
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,269 @@
+/*
+ *Copyright (c) 2013 Costco, Vimil Saju
+ *See the file license.txt for copying permission.
+ */
+
+package com.cwctravel.hudson.plugins.extended_choice_parameter;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Guards a {@link ChoiceSource} backend so that an unreachable SSH host or database does not make every page view
+ * wait for the connect timeout.
+ * <p>
+ * The breaker records the outcome of the last calls. Once at least half of them failed it opens and rejects calls
+ * for a back-off period that doubles every time the backend is still failing, up to a maximum. After the back-off
+ * a single caller is let through as a probe: if it succeeds the breaker closes again, otherwise it reopens. A probe
+ * that has not returned within the probe timeout is given up on and the next caller probes instead. While the
+ * breaker is open, or when a call fails, the last choices the backend returned successfully are served instead.
+ * <p>
+ * The thresholds can be tuned with the system properties
+ * <code>com.cwctravel.hudson.plugins.extended_choice_parameter.ChoiceSourceCircuitBreaker.window</code> (calls),
+ * <code>.failureRate</code> (percent), <code>.minBackoff</code>, <code>.maxBackoff</code> and
+ * <code>.probeTimeout</code> (milliseconds).
+ */
+final class ChoiceSourceCircuitBreaker {
+	private static final Logger LOG = Logger.getLogger(ChoiceSourceCircuitBreaker.class.getName());
+
+	private static final int WINDOW = Integer.getInteger(ChoiceSourceCircuitBreaker.class.getName() + ".window", 10);
+
+	private static final int FAILURE_RATE = Integer.getInteger(ChoiceSourceCircuitBreaker.class.getName() + ".failureRate", 50);
+
+	private static final long MIN_BACKOFF = Long.getLong(ChoiceSourceCircuitBreaker.class.getName() + ".minBackoff", 5000L);
+
+	private static final long MAX_BACKOFF = Long.getLong(ChoiceSourceCircuitBreaker.class.getName() + ".maxBackoff", 300000L);
+
+	private static final long PROBE_TIMEOUT = Long.getLong(ChoiceSourceCircuitBreaker.class.getName() + ".probeTimeout", 120000L);
+
+	// failures needed before the failure rate is taken into account at all
+	private static final int MIN_FAILURES = 2;
+
+	private static final int PURGE_THRESHOLD = 256;
+
+	private static final ConcurrentMap<String, ChoiceSourceCircuitBreaker> BREAKERS = new ConcurrentHashMap<String, ChoiceSourceCircuitBreaker>();
+
+	enum State {
+		CLOSED, OPEN, HALF_OPEN
+	}
+
+	private final String key;
+
+	// ring buffer of the outcomes of the last WINDOW calls, true meaning failure
+	private final boolean[] outcomes = new boolean[Math.max(WINDOW, 1)];
+
+	private int outcomeCount;
+
+	private int nextOutcome;
+
+	private State state = State.CLOSED;
+
+	private long backoff;
+
+	private long openUntil;
+
+	private long probeStarted;
+
+	private long lastUsed;
+
+	private List<String> lastGoodChoices;
+
+	private ChoiceSourceCircuitBreaker(String key) {
+		this.key = key;
+	}
+
+	/**
+	 * Thrown instead of calling the backend while the breaker is open and nothing can be served in its place.
+	 */
+	static final class CircuitOpenException extends IOException {
+		private static final long serialVersionUID = -2264390779802484475L;
+
+		CircuitOpenException(String message) {
+			super(message);
+		}
+	}
+
+	static ChoiceSourceCircuitBreaker forKey(String key) {
+		ChoiceSourceCircuitBreaker breaker = BREAKERS.get(key);
+		if(breaker == null) {
+			purgeIdle();
+			ChoiceSourceCircuitBreaker created = new ChoiceSourceCircuitBreaker(key);
+			breaker = BREAKERS.putIfAbsent(key, created);
+			if(breaker == null) {
+				breaker = created;
+			}
+		}
+		return breaker;
+	}
+
+	/**
+	 * Reads the choices of <code>choiceSource</code> through this breaker.
+	 */
+	List<String> call(ChoiceSource choiceSource, ExtendedChoiceParameterConfig config, ChoiceSpec spec, int limit)
+			throws IOException {
+		if(!allowRequest()) {
+			List<String> fallback = getLastGoodChoices();
+			if(fallback != null) {
+				return fallback;
+			}
+			throw new CircuitOpenException(String.format("Choice source %s is unavailable, retrying in %d ms", key,
+					getRetryDelay()));
+		}
+
+		ChoiceSourceStatistics statistics = ChoiceSourceStatistics.forSource(key);
+		long start = System.nanoTime();
+		List<String> choices = null;
+		IOException failure = null;
+		try {
+			choices = Collections.unmodifiableList(ChoiceBudget.collect(choiceSource.open(config, spec,
+					ChoiceBudget.sourceLimit(limit)), key));
+		}
+		catch(IOException e) {
+			failure = e;
+		}
+		catch(RuntimeException e) {
+			failure = new IOException(e);
+		}
+		finally {
+			if(choices == null) {
+				statistics.record(start, 0, true);
+				if(failure == null) {
+					// an Error is propagated, but must not leave a probe outstanding
+					recordFailure();
+				}
+			}
+		}
+		if(failure != null) {
+			return onFailure(failure);
+		}
+		statistics.record(start, choices.size(), false);
+		recordSuccess(choices);
+		return choices;
+	}
+
+	private List<String> onFailure(IOException e) throws IOException {
+		recordFailure();
+		List<String> fallback = getLastGoodChoices();
+		if(fallback == null) {
+			throw e;
+		}
+		LOG.log(Level.WARNING, String.format("Choice source %s failed, serving the last good choices", key), e);
+		return fallback;
+	}
+
+	private synchronized boolean allowRequest() {
+		lastUsed = System.currentTimeMillis();
+		switch(state) {
+			case CLOSED:
+				return true;
+			case OPEN:
+				if(lastUsed >= openUntil) {
+					// let exactly one probe through
+					state = State.HALF_OPEN;
+					probeStarted = lastUsed;
+					return true;
+				}
+				return false;
+			default:
+				if(lastUsed - probeStarted >= PROBE_TIMEOUT) {
+					// the probe hangs, give up on it and let the next caller probe instead
+					LOG.log(Level.WARNING, "Probe of choice source {0} did not return within {1} ms", new Object[] { key,
+							PROBE_TIMEOUT });
+					probeStarted = lastUsed;
+					return true;
+				}
+				return false;
+		}
+	}
+
+	private synchronized void recordSuccess(List<String> choices) {
+		lastGoodChoices = choices;
+		if(state != State.CLOSED) {
+			LOG.log(Level.INFO, "Choice source {0} recovered", key);
+			state = State.CLOSED;
+			backoff = 0;
+			outcomeCount = 0;
+		}
+		recordOutcome(false);
+	}
+
+	private synchronized void recordFailure() {
+		recordOutcome(true);
+		if(state == State.HALF_OPEN || (state == State.CLOSED && isFailureRateExceeded())) {
+			backoff = backoff == 0 ? MIN_BACKOFF : Math.min(backoff * 2, MAX_BACKOFF);
+			openUntil = System.currentTimeMillis() + backoff;
+			state = State.OPEN;
+			LOG.log(Level.WARNING, "Choice source {0} keeps failing, not calling it for {1} ms", new Object[] { key, backoff });
+		}
+	}
+
+	private void recordOutcome(boolean failure) {
+		outcomes[nextOutcome] = failure;
+		nextOutcome = (nextOutcome + 1) % outcomes.length;
+		if(outcomeCount < outcomes.length) {
+			outcomeCount++;
+		}
+	}
+
+	private boolean isFailureRateExceeded() {
+		int failures = 0;
+		for(int i = 0; i < outcomeCount; i++) {
+			if(outcomes[(nextOutcome - 1 - i + outcomes.length) % outcomes.length]) {
+				failures++;
+			}
+		}
+		return failures >= MIN_FAILURES && failures * 100 >= FAILURE_RATE * outcomeCount;
+	}
+
+	synchronized long getRetryDelay() {
+		return state == State.OPEN ? Math.max(0, openUntil - System.currentTimeMillis()) : 0;
+	}
+
+	synchronized List<String> getLastGoodChoices() {
+		return lastGoodChoices;
+	}
+
+	static List<List<String>> getLastGoodChoicesOfAll() {
+		List<List<String>> result = new ArrayList<List<String>>();
+		for(ChoiceSourceCircuitBreaker breaker: BREAKERS.values()) {
+			List<String> choices = breaker.getLastGoodChoices();
+			if(choices != null) {
+				result.add(choices);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Forgets the last good choices of every breaker, to make room when the total {@link ChoiceBudget} is exceeded.
+	 * An outage that starts before the backend is called successfully again is then reported instead of bridged.
+	 */
+	static void evictLastGoodChoices() {
+		for(ChoiceSourceCircuitBreaker breaker: BREAKERS.values()) {
+			synchronized(breaker) {
+				breaker.lastGoodChoices = null;
+			}
+		}
+	}
+
+	private static void purgeIdle() {
+		if(BREAKERS.size() > PURGE_THRESHOLD) {
+			long idleSince = System.currentTimeMillis() - MAX_BACKOFF;
+			for(Iterator<ChoiceSourceCircuitBreaker> it = BREAKERS.values().iterator(); it.hasNext();) {
+				ChoiceSourceCircuitBreaker breaker = it.next();
+				synchronized(breaker) {
+					if(breaker.state == State.CLOSED && breaker.lastUsed < idleSince) {
+						it.remove();
+					}
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,195 @@
+/*
+ *Copyright (c) 2013 Costco, Vimil Saju
+ *See the file license.txt for copying permission.
+ */
+
+package com.cwctravel.hudson.plugins.extended_choice_parameter;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+
+/**
+ * Call counters and latency distribution of the choice resolutions requested by pages and submissions, and of the
+ * backend calls each {@link ChoiceSource} actually made, so that the effect of caching and of load on the backends
+ * can be measured on a running instance. Recording is lock free.
+ * <p>
+ * Latencies are counted in power of two buckets of microseconds, so percentiles are accurate to within a factor
+ * of two, which is enough to tell a cache hit from a fork or a network round trip.
+ */
+public final class ChoiceSourceStatistics {
+	private static final int BUCKETS = 40;
+
+	private static final int MAX_SOURCES = 1024;
+
+	private static final ConcurrentMap<String, ChoiceSourceStatistics> SOURCES = new ConcurrentHashMap<String, ChoiceSourceStatistics>();
+
+	private static volatile ChoiceSourceStatistics resolutions = new ChoiceSourceStatistics("resolutions");
+
+	private final String key;
+
+	private final long since = System.currentTimeMillis();
+
+	private final AtomicLong calls = new AtomicLong();
+
+	private final AtomicLong failures = new AtomicLong();
+
+	private final AtomicLong choices = new AtomicLong();
+
+	private final AtomicLong totalNanos = new AtomicLong();
+
+	private final AtomicLong maxNanos = new AtomicLong();
+
+	private final AtomicLongArray histogram = new AtomicLongArray(BUCKETS);
+
+	private ChoiceSourceStatistics(String key) {
+		this.key = key;
+	}
+
+	/**
+	 * Statistics of all resolutions, whether they were served from a cache or reached a backend.
+	 */
+	public static ChoiceSourceStatistics getResolutions() {
+		return resolutions;
+	}
+
+	/**
+	 * Statistics of the backend calls of every source, busiest first.
+	 */
+	public static List<ChoiceSourceStatistics> getSources() {
+		List<ChoiceSourceStatistics> result = new ArrayList<ChoiceSourceStatistics>(SOURCES.values());
+		Collections.sort(result, new Comparator<ChoiceSourceStatistics>() {
+			public int compare(ChoiceSourceStatistics statistics1, ChoiceSourceStatistics statistics2) {
+				long calls1 = statistics1.getCalls();
+				long calls2 = statistics2.getCalls();
+				return calls1 < calls2 ? 1 : (calls1 == calls2 ? 0 : -1);
+			}
+		});
+		return result;
+	}
+
+	static ChoiceSourceStatistics forSource(String key) {
+		ChoiceSourceStatistics statistics = SOURCES.get(key);
+		if(statistics == null) {
+			if(SOURCES.size() >= MAX_SOURCES) {
+				return new ChoiceSourceStatistics(key);
+			}
+			ChoiceSourceStatistics created = new ChoiceSourceStatistics(key);
+			statistics = SOURCES.putIfAbsent(key, created);
+			if(statistics == null) {
+				statistics = created;
+			}
+		}
+		return statistics;
+	}
+
+	public static void reset() {
+		SOURCES.clear();
+		resolutions = new ChoiceSourceStatistics("resolutions");
+	}
+
+	void record(long startNanos, int choiceCount, boolean failure) {
+		long nanos = System.nanoTime() - startNanos;
+		calls.incrementAndGet();
+		if(failure) {
+			failures.incrementAndGet();
+		}
+		choices.addAndGet(choiceCount);
+		totalNanos.addAndGet(nanos);
+
+		long max = maxNanos.get();
+		while(nanos > max && !maxNanos.compareAndSet(max, nanos)) {
+			max = maxNanos.get();
+		}
+
+		long micros = Math.max(nanos / 1000, 1);
+		int bucket = Math.min(63 - Long.numberOfLeadingZeros(micros), BUCKETS - 1);
+		histogram.incrementAndGet(bucket);
+	}
+
+	public String getKey() {
+		return key;
+	}
+
+	public long getCalls() {
+		return calls.get();
+	}
+
+	public long getFailures() {
+		return failures.get();
+	}
+
+	public long getChoices() {
+		return choices.get();
+	}
+
+	public double getThroughput() {
+		long elapsed = System.currentTimeMillis() - since;
+		return elapsed <= 0 ? 0 : getCalls() * 1000.0 / elapsed;
+	}
+
+	public double getMeanMillis() {
+		long count = getCalls();
+		return count == 0 ? 0 : totalNanos.get() / 1000000.0 / count;
+	}
+
+	public double getMaxMillis() {
+		return maxNanos.get() / 1000000.0;
+	}
+
+	/**
+	 * Upper bound of the latency below which <code>percentile</code> percent of the calls completed.
+	 */
+	public double getPercentileMillis(double percentile) {
+		long total = 0;
+		for(int i = 0; i < BUCKETS; i++) {
+			total += histogram.get(i);
+		}
+		if(total == 0) {
+			return 0;
+		}
+		long threshold = (long) Math.ceil(total * percentile / 100.0);
+		long count = 0;
+		for(int i = 0; i < BUCKETS; i++) {
+			count += histogram.get(i);
+			if(count >= threshold) {
+				return Math.min((1L << (i + 1)) / 1000.0, getMaxMillis());
+			}
+		}
+		return getMaxMillis();
+	}
+
+	public JSONObject toJSON() {
+		JSONObject result = new JSONObject();
+		result.put("key", key);
+		result.put("calls", getCalls());
+		result.put("failures", getFailures());
+		result.put("choices", getChoices());
+		result.put("throughput", getThroughput());
+		result.put("meanMillis", getMeanMillis());
+		result.put("p50Millis", getPercentileMillis(50));
+		result.put("p90Millis", getPercentileMillis(90));
+		result.put("p99Millis", getPercentileMillis(99));
+		result.put("maxMillis", getMaxMillis());
+		return result;
+	}
+
+	public static JSONObject allToJSON() {
+		JSONArray sources = new JSONArray();
+		for(ChoiceSourceStatistics statistics: getSources()) {
+			sources.add(statistics.toJSON());
+		}
+		JSONObject result = new JSONObject();
+		result.put("resolutions", getResolutions().toJSON());
+		result.put("sources", sources);
+		return result;
+	}
+}
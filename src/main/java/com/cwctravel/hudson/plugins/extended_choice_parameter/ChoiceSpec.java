@@ -0,0 +1,74 @@
+/*
+ *Copyright (c) 2013 Costco, Vimil Saju
+ *See the file license.txt for copying permission.
+ */
+
+package com.cwctravel.hudson.plugins.extended_choice_parameter;
+
+/**
+ * Identifies which list of an {@link ExtendedChoiceParameterConfig} is being resolved: the choices themselves, backed
+ * by <code>value</code>, <code>propertyFile</code> and <code>propertyKey</code>, or the default values, backed by
+ * <code>defaultValue</code>, <code>defaultPropertyFile</code> and <code>defaultPropertyKey</code>.
+ * <p>
+ * The default of a parameter that takes a single value is {@link #isLiteral() literal}: it is used as it is, since it
+ * may well contain the delimiter.
+ */
+public final class ChoiceSpec {
+	private final boolean defaultValue;
+
+	private final String value;
+
+	private final String propertyFile;
+
+	private final String propertyKey;
+
+	private final boolean literal;
+
+	private ChoiceSpec(boolean defaultValue, String value, String propertyFile, String propertyKey, boolean literal) {
+		this.defaultValue = defaultValue;
+		this.value = value;
+		this.propertyFile = propertyFile;
+		this.propertyKey = propertyKey;
+		this.literal = literal;
+	}
+
+	public static ChoiceSpec forChoices(ExtendedChoiceParameterConfig config) {
+		return new ChoiceSpec(false, config.getValue(), config.getPropertyFile(), config.getPropertyKey(), false);
+	}
+
+	public static ChoiceSpec forDefaultValue(ExtendedChoiceParameterConfig config) {
+		return new ChoiceSpec(true, config.getDefaultValue(), config.getDefaultPropertyFile(),
+				config.getDefaultPropertyKey(), isSingleValue(config.getType()));
+	}
+
+	private static boolean isSingleValue(String type) {
+		return ExtendedChoiceParameterDefinition.PARAMETER_TYPE_TEXT_BOX.equals(type)
+				|| ExtendedChoiceParameterDefinition.PARAMETER_TYPE_SINGLE_SELECT.equals(type)
+				|| ExtendedChoiceParameterDefinition.PARAMETER_TYPE_RADIO.equals(type)
+				|| ExtendedChoiceParameterDefinition.PARAMETER_TYPE_MULTI_LEVEL_SINGLE_SELECT.equals(type);
+	}
+
+	public boolean isDefaultValue() {
+		return defaultValue;
+	}
+
+	public String getValue() {
+		return value;
+	}
+
+	public String getPropertyFile() {
+		return propertyFile;
+	}
+
+	public String getPropertyKey() {
+		return propertyKey;
+	}
+
+	/**
+	 * Whether a configured value or property is a single choice rather than a delimited list. Sources that produce
+	 * lists, such as commands and queries, ignore this.
+	 */
+	public boolean isLiteral() {
+		return literal;
+	}
+}
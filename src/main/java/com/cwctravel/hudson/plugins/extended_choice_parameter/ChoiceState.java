@@ -0,0 +1,102 @@
+/*
+ *Copyright (c) 2013 Costco, Vimil Saju
+ *See the file license.txt for copying permission.
+ */
+
+package com.cwctravel.hudson.plugins.extended_choice_parameter;
+
+import hudson.Extension;
+import hudson.model.AbstractProject;
+import hudson.model.Item;
+import hudson.model.listeners.ItemListener;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.commons.lang.StringUtils;
+
+/**
+ * The {@link ChoiceSnapshot} and {@link ChoiceHistory} of a parameter. Saving or reloading a job replaces its
+ * {@link ExtendedChoiceParameterDefinition}s, so the state is kept by job and parameter name and handed to the new
+ * definitions when the actions of the job are rebuilt. The first snapshot of a changed configuration then follows
+ * the last one of the previous configuration, and the change between them is recorded like any other. The state is
+ * dropped when the job or parameter goes away, and is only kept in memory.
+ */
+final class ChoiceState {
+	private static final ConcurrentMap<String, ChoiceState> STATES = new ConcurrentHashMap<String, ChoiceState>();
+
+	// held while the choices are resolved
+	final ReentrantLock lock = new ReentrantLock();
+
+	final ChoiceHistory history = new ChoiceHistory();
+
+	volatile ChoiceSnapshot snapshot;
+
+	/**
+	 * Hands the state kept for each of the parameters of <code>project</code> to its definition, and drops the state
+	 * of parameters that no longer exist. A parameter seen for the first time keeps the state it already has.
+	 */
+	static void bind(AbstractProject<?, ?> project, List<ExtendedChoiceParameterDefinition> definitions) {
+		String prefix = keyPrefix(project.getFullName());
+		Set<String> keys = new HashSet<String>();
+		for(ExtendedChoiceParameterDefinition definition: definitions) {
+			String key = prefix + definition.getName();
+			keys.add(key);
+			ChoiceState state = definition.getState();
+			ChoiceState shared = STATES.putIfAbsent(key, state);
+			if(shared != null && shared != state) {
+				definition.setState(shared);
+			}
+		}
+		for(Iterator<String> it = STATES.keySet().iterator(); it.hasNext();) {
+			String key = it.next();
+			if(key.startsWith(prefix) && !keys.contains(key)) {
+				it.remove();
+			}
+		}
+	}
+
+	private static String keyPrefix(String fullName) {
+		return fullName + '#';
+	}
+
+	private static String parentPrefix(Item item) {
+		String parentName = item.getParent().getFullName();
+		return StringUtils.isEmpty(parentName) ? "" : parentName + '/';
+	}
+
+	@Extension
+	public static class ItemListenerImpl extends ItemListener {
+		@Override
+		public void onDeleted(Item item) {
+			String fullName = item.getFullName();
+			for(Iterator<String> it = STATES.keySet().iterator(); it.hasNext();) {
+				String key = it.next();
+				// a deleted folder takes its jobs with it
+				if(key.startsWith(keyPrefix(fullName)) || key.startsWith(fullName + '/')) {
+					it.remove();
+				}
+			}
+		}
+
+		@Override
+		public void onRenamed(Item item, String oldName, String newName) {
+			String oldFullName = parentPrefix(item) + oldName;
+			String newFullName = item.getFullName();
+			for(Iterator<Map.Entry<String, ChoiceState>> it = STATES.entrySet().iterator(); it.hasNext();) {
+				Map.Entry<String, ChoiceState> entry = it.next();
+				String key = entry.getKey();
+				if(key.startsWith(keyPrefix(oldFullName)) || key.startsWith(oldFullName + '/')) {
+					it.remove();
+					STATES.putIfAbsent(newFullName + key.substring(oldFullName.length()), entry.getValue());
+				}
+			}
+		}
+	}
+}
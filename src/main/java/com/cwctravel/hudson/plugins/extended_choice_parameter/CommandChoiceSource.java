@@ -0,0 +1,230 @@
+/*
+ *Copyright (c) 2013 Costco, Vimil Saju
+ *See the file license.txt for copying permission.
+ */
+
+package com.cwctravel.hudson.plugins.extended_choice_parameter;
+
+import hudson.Extension;
+import hudson.model.Computer;
+import hudson.model.Label;
+import hudson.model.Node;
+import hudson.remoting.Callable;
+import hudson.remoting.VirtualChannel;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.Serializable;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+import jenkins.model.Jenkins;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang.StringUtils;
+
+/**
+ * Runs the configured command and takes one or more delimited choices from every line of its output.
+ * <p>
+ * The command runs on the master unless a node label is configured, in which case it runs on an online node with
+ * that label through the remoting channel, so that expensive listing scripts do not compete with the master. Either
+ * way the output is read no further than the input budget of {@link ChoiceBudget}; the node only sends back those
+ * raw lines, which are split into choices and counted against the budgets on the master. Results are cached on the
+ * master per label and command by {@link ChoiceSourceCache}.
+ */
+@Extension(ordinal = 200)
+public class CommandChoiceSource extends ChoiceSource {
+	private static final Random RANDOM = new Random();
+
+	@Override
+	public boolean isApplicable(ExtendedChoiceParameterConfig config, ChoiceSpec spec) {
+		return !StringUtils.isBlank(config.getCommand());
+	}
+
+	@Override
+	public ChoiceIterator open(ExtendedChoiceParameterConfig config, ChoiceSpec spec, int limit) throws IOException {
+		if(StringUtils.isBlank(config.getCommandNodeLabel())) {
+			return openLocal(config.getCommand(), config.getDelimiter(), limit);
+		}
+
+		VirtualChannel channel = selectChannel(config.getCommandNodeLabel().trim());
+		final CommandOutput output;
+		try {
+			output = channel.call(new CommandCallable(config.getCommand(), ChoiceBudget.getMaxInputBytes()));
+		}
+		catch(InterruptedException e) {
+			throw new InterruptedIOException(e.getMessage());
+		}
+
+		final Iterator<String> iterator = output.lines.iterator();
+		return new ChoiceIterators.LineChoiceIterator(limit, null, config.getDelimiter()) {
+			@Override
+			protected String readLine() {
+				return iterator.hasNext() ? iterator.next() : null;
+			}
+
+			@Override
+			protected boolean isCut() {
+				return output.cut;
+			}
+		};
+	}
+
+	/**
+	 * Picks one of the online nodes with the given label at random, to spread the load over all of them.
+	 */
+	private static VirtualChannel selectChannel(String labelString) throws IOException {
+		Label label = Jenkins.getInstance().getLabel(labelString);
+		List<VirtualChannel> channels = new ArrayList<VirtualChannel>();
+		if(label != null) {
+			for(Node node: label.getNodes()) {
+				Computer computer = node.toComputer();
+				if(computer != null && computer.isOnline() && computer.getChannel() != null) {
+					channels.add(computer.getChannel());
+				}
+			}
+		}
+		if(channels.isEmpty()) {
+			throw new IOException(String.format("No online node with label %s", labelString));
+		}
+		return channels.get(RANDOM.nextInt(channels.size()));
+	}
+
+	/**
+	 * The output lines of a command, and whether they were cut off at the input budget.
+	 */
+	private static final class CommandOutput implements Serializable {
+		private static final long serialVersionUID = -2300457425312186271L;
+
+		private final List<String> lines;
+
+		private final boolean cut;
+
+		CommandOutput(List<String> lines, boolean cut) {
+			this.lines = lines;
+			this.cut = cut;
+		}
+	}
+
+	/**
+	 * Reads the output lines of a command on a node, no more than <code>maxBytes</code> of them.
+	 */
+	private static final class CommandCallable implements Callable<CommandOutput, IOException> {
+		private static final long serialVersionUID = 4436618264153617043L;
+
+		private final String command;
+
+		private final long maxBytes;
+
+		CommandCallable(String command, long maxBytes) {
+			this.command = command;
+			this.maxBytes = maxBytes;
+		}
+
+		public CommandOutput call() throws IOException {
+			CommandProcess process = new CommandProcess(command, maxBytes);
+			try {
+				List<String> lines = new ArrayList<String>();
+				String line;
+				while((line = process.readLine()) != null) {
+					lines.add(line);
+				}
+				if(!process.isCut()) {
+					process.finish();
+				}
+				return new CommandOutput(lines, process.isCut());
+			}
+			finally {
+				process.close();
+			}
+		}
+	}
+
+	/**
+	 * A running command whose output is read line by line, up to <code>maxBytes</code>. Closing it kills the command
+	 * if it is still running.
+	 */
+	private static final class CommandProcess implements Closeable {
+		private final Process process;
+
+		private final BoundedInputStream inputStream;
+
+		private final BufferedReader bufferedReader;
+
+		CommandProcess(String command, long maxBytes) throws IOException {
+			process = Runtime.getRuntime().exec(command);
+			inputStream = new BoundedInputStream(process.getInputStream(), maxBytes);
+			bufferedReader = new BufferedReader(new InputStreamReader(inputStream));
+		}
+
+		String readLine() throws IOException {
+			return bufferedReader.readLine();
+		}
+
+		boolean isCut() {
+			return inputStream.isCut();
+		}
+
+		/**
+		 * Waits for the command to exit after its output was read, failing with its error output if it did not
+		 * succeed.
+		 */
+		void finish() throws IOException {
+			int exitValue;
+			try {
+				exitValue = process.waitFor();
+			}
+			catch(InterruptedException e) {
+				throw new InterruptedIOException(e.getMessage());
+			}
+			if(exitValue != 0) {
+				throw new IOException(IOUtils.toString(process.getErrorStream(), Charset.defaultCharset().name()));
+			}
+		}
+
+		public void close() throws IOException {
+			try {
+				bufferedReader.close();
+			}
+			finally {
+				process.destroy();
+			}
+		}
+	}
+
+	static ChoiceIterator openLocal(String command, ChoiceDelimiter delimiter, int limit) throws IOException {
+		final CommandProcess process = new CommandProcess(command, ChoiceBudget.getMaxInputBytes());
+		return new ChoiceIterators.LineChoiceIterator(limit, process, delimiter) {
+			@Override
+			protected String readLine() throws IOException {
+				return process.readLine();
+			}
+
+			@Override
+			protected boolean isCut() {
+				return process.isCut();
+			}
+
+			@Override
+			protected void finish() throws IOException {
+				process.finish();
+			}
+		};
+	}
+
+	@Override
+	public int getCostHint(ExtendedChoiceParameterConfig config, ChoiceSpec spec) {
+		return StringUtils.isBlank(config.getCommandNodeLabel()) ? COST_PROCESS : COST_REMOTE;
+	}
+
+	@Override
+	public String getCacheKey(ExtendedChoiceParameterConfig config, ChoiceSpec spec) {
+		return StringUtils.defaultString(config.getCommandNodeLabel()).trim() + '\n' + config.getCommand();
+	}
+}
@@ -0,0 +1,168 @@
+/*
+ *Copyright (c) 2013 Costco, Vimil Saju
+ *See the file license.txt for copying permission.
+ */
+
+package com.cwctravel.hudson.plugins.extended_choice_parameter;
+
+import hudson.Extension;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang.StringUtils;
+
+/**
+ * Takes one or more delimited choices from the first column of every row returned by the configured query. The
+ * values are read as streams and no further than the input budget of {@link ChoiceBudget}, so that a huge text column
+ * cannot fill the heap.
+ * <p>
+ * Logging in and the query time out after <code>loginTimeout</code> and <code>queryTimeout</code> seconds (system
+ * properties prefixed with the class name, 10 and 30 seconds by default). The login timeout is set on
+ * {@link DriverManager}, which shares it with every other user of JDBC, and therefore only if nobody has set one.
+ */
+@Extension(ordinal = 100)
+public class DatabaseChoiceSource extends ChoiceSource {
+	private static final int LOGIN_TIMEOUT = Integer.getInteger(DatabaseChoiceSource.class.getName() + ".loginTimeout",
+			10);
+
+	private static final int QUERY_TIMEOUT = Integer.getInteger(DatabaseChoiceSource.class.getName() + ".queryTimeout",
+			30);
+
+	@Override
+	public boolean isApplicable(ExtendedChoiceParameterConfig config, ChoiceSpec spec) {
+		return !StringUtils.isBlank(config.getDbURL());
+	}
+
+	@Override
+	public ChoiceIterator open(ExtendedChoiceParameterConfig config, ChoiceSpec spec, int limit) throws IOException {
+		String request = config.getDbRequest();
+		if(!StringUtils.isBlank(config.getDbRequestFile())) {
+			InputStream inputStream = new URL(config.getDbRequestFile()).openStream();
+			try {
+				request = IOUtils.toString(inputStream, Charset.defaultCharset().name());
+			}
+			finally {
+				inputStream.close();
+			}
+		}
+
+		try {
+			Class.forName(config.getDbDriver());
+		}
+		catch(ClassNotFoundException e) {
+			throw new IOException(e);
+		}
+
+		Connection connection = null;
+		boolean opened = false;
+		try {
+			if(DriverManager.getLoginTimeout() == 0) {
+				DriverManager.setLoginTimeout(LOGIN_TIMEOUT);
+			}
+			connection = DriverManager.getConnection(config.getDbURL(), config.getDbUsername(), config.getDbPassword());
+			final PreparedStatement preparedStatement = connection.prepareStatement(request);
+			if(limit < Integer.MAX_VALUE) {
+				preparedStatement.setMaxRows(limit);
+			}
+			preparedStatement.setQueryTimeout(QUERY_TIMEOUT);
+			final ResultSet resultSet = preparedStatement.executeQuery();
+
+			final Connection resultConnection = connection;
+			Closeable resource = new Closeable() {
+				public void close() throws IOException {
+					try {
+						resultSet.close();
+						preparedStatement.close();
+						resultConnection.close();
+					}
+					catch(SQLException e) {
+						throw new IOException(e);
+					}
+				}
+			};
+
+			ChoiceIterator result = new ChoiceIterators.LineChoiceIterator(limit, resource, config.getDelimiter()) {
+				private long remaining = ChoiceBudget.getMaxInputBytes();
+
+				private boolean cut;
+
+				@Override
+				protected String readLine() throws IOException {
+					try {
+						if(cut || !resultSet.next()) {
+							return null;
+						}
+						Reader reader = resultSet.getCharacterStream(1);
+						if(reader == null) {
+							return "";
+						}
+						try {
+							return readValue(reader);
+						}
+						finally {
+							reader.close();
+						}
+					}
+					catch(SQLException e) {
+						throw new IOException(e);
+					}
+				}
+
+				private String readValue(Reader reader) throws IOException {
+					StringBuilder value = new StringBuilder();
+					char[] buffer = new char[4096];
+					int read;
+					while(remaining > 0 && (read = reader.read(buffer, 0, (int) Math.min(buffer.length, remaining))) > 0) {
+						value.append(buffer, 0, read);
+						remaining -= read;
+					}
+					cut = remaining == 0 && reader.read() >= 0;
+					return value.toString();
+				}
+
+				@Override
+				protected boolean isCut() {
+					return cut;
+				}
+			};
+			opened = true;
+			return result;
+		}
+		catch(SQLException e) {
+			throw new IOException(e);
+		}
+		finally {
+			if(!opened && connection != null) {
+				try {
+					connection.close();
+				}
+				catch(SQLException e) {
+					// the original failure is more interesting
+				}
+			}
+		}
+	}
+
+	@Override
+	public int getCostHint(ExtendedChoiceParameterConfig config, ChoiceSpec spec) {
+		return COST_REMOTE;
+	}
+
+	@Override
+	public String getCacheKey(ExtendedChoiceParameterConfig config, ChoiceSpec spec) {
+		return config.getDbUsername() + '@' + config.getDbURL() + ' '
+				+ StringUtils.defaultString(config.getDbRequestFile(), config.getDbRequest()) + " ["
+				+ digestOf(config.getDbPassword()) + ']';
+	}
+}
@@ -0,0 +1,255 @@
+/*
+ *Copyright (c) 2013 Costco, Vimil Saju
+ *See the file license.txt for copying permission.
+ */
+
+package com.cwctravel.hudson.plugins.extended_choice_parameter;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Immutable copy of the configuration of an {@link ExtendedChoiceParameterDefinition}.
+ * <p>
+ * The definition publishes a new instance through a single volatile reference whenever it is created, loaded or
+ * changed through one of its setters. Request threads read that reference once and work on a consistent view
+ * without locking. Every instance carries a globally unique, increasing generation, which caches derived from it
+ * compare against the current generation instead of re-checking individual fields.
+ */
+public final class ExtendedChoiceParameterConfig {
+	private static final AtomicLong GENERATIONS = new AtomicLong();
+
+	private final long generation;
+
+	private final String type;
+
+	private final String value;
+
+	private final String propertyFile;
+
+	private final String propertyKey;
+
+	private final String defaultValue;
+
+	private final String defaultPropertyFile;
+
+	private final String defaultPropertyKey;
+
+	private final boolean quoteValue;
+
+	private final int visibleItemCount;
+
+	private final String multiSelectDelimiter;
+
+	private final String command;
+
+	private final String sshUsername;
+
+	private final String sshPassword;
+
+	private final String sshHostname;
+
+	private final String sshPublicKey;
+
+	private final String dbDriver;
+
+	private final String dbURL;
+
+	private final String dbUsername;
+
+	private final String dbPassword;
+
+	private final String dbRequest;
+
+	private final String dbRequestFile;
+
+	private final String gitRepository;
+
+	private final String gitRefFilter;
+
+	private final String mavenMetadataURL;
+
+	private final String mavenVersionFilter;
+
+	private final int mavenNewestCount;
+
+	private final String commandNodeLabel;
+
+	private final String fallbackValue;
+
+	private final String inputDelimiter;
+
+	private final ChoiceDelimiter delimiter;
+
+	private final MultiLevelChoiceLevels multiLevelChoiceLevels;
+
+	ExtendedChoiceParameterConfig(ExtendedChoiceParameterDefinition definition) {
+		this.generation = GENERATIONS.incrementAndGet();
+		this.type = definition.getType();
+		this.value = definition.getValue();
+		this.propertyFile = definition.getPropertyFile();
+		this.propertyKey = definition.getPropertyKey();
+		this.defaultValue = definition.getDefaultValue();
+		this.defaultPropertyFile = definition.getDefaultPropertyFile();
+		this.defaultPropertyKey = definition.getDefaultPropertyKey();
+		this.quoteValue = definition.isQuoteValue();
+		this.visibleItemCount = definition.getVisibleItemCount();
+		this.multiSelectDelimiter = definition.getMultiSelectDelimiter();
+		this.command = definition.getCommand();
+		this.sshUsername = definition.getSshUsername();
+		this.sshPassword = definition.getSshPassword();
+		this.sshHostname = definition.getSshHostname();
+		this.sshPublicKey = definition.getSshPrivateKey();
+		this.dbDriver = definition.getDbDriver();
+		this.dbURL = definition.getDbURL();
+		this.dbUsername = definition.getDbUsername();
+		this.dbPassword = definition.getDbPassword();
+		this.dbRequest = definition.getDbRequest();
+		this.dbRequestFile = definition.getDbRequestFile();
+		this.gitRepository = definition.getGitRepository();
+		this.gitRefFilter = definition.getGitRefFilter();
+		this.mavenMetadataURL = definition.getMavenMetadataURL();
+		this.mavenVersionFilter = definition.getMavenVersionFilter();
+		this.mavenNewestCount = definition.getMavenNewestCount();
+		this.commandNodeLabel = definition.getCommandNodeLabel();
+		this.fallbackValue = definition.getFallbackValue();
+		this.inputDelimiter = definition.getInputDelimiter();
+		this.delimiter = new ChoiceDelimiter(inputDelimiter, multiSelectDelimiter);
+		boolean multiLevel = ExtendedChoiceParameterDefinition.PARAMETER_TYPE_MULTI_LEVEL_SINGLE_SELECT.equals(type)
+				|| ExtendedChoiceParameterDefinition.PARAMETER_TYPE_MULTI_LEVEL_MULTI_SELECT.equals(type);
+		this.multiLevelChoiceLevels = multiLevel ? MultiLevelChoiceLevels.compile(value) : null;
+	}
+
+	public long getGeneration() {
+		return generation;
+	}
+
+	public String getType() {
+		return type;
+	}
+
+	public String getValue() {
+		return value;
+	}
+
+	public String getPropertyFile() {
+		return propertyFile;
+	}
+
+	public String getPropertyKey() {
+		return propertyKey;
+	}
+
+	public String getDefaultValue() {
+		return defaultValue;
+	}
+
+	public String getDefaultPropertyFile() {
+		return defaultPropertyFile;
+	}
+
+	public String getDefaultPropertyKey() {
+		return defaultPropertyKey;
+	}
+
+	public boolean isQuoteValue() {
+		return quoteValue;
+	}
+
+	public int getVisibleItemCount() {
+		return visibleItemCount;
+	}
+
+	public String getMultiSelectDelimiter() {
+		return multiSelectDelimiter;
+	}
+
+	public String getCommand() {
+		return command;
+	}
+
+	public String getSshUsername() {
+		return sshUsername;
+	}
+
+	public String getSshPassword() {
+		return sshPassword;
+	}
+
+	public String getSshHostname() {
+		return sshHostname;
+	}
+
+	public String getSshPublicKey() {
+		return sshPublicKey;
+	}
+
+	public String getDbDriver() {
+		return dbDriver;
+	}
+
+	public String getDbURL() {
+		return dbURL;
+	}
+
+	public String getDbUsername() {
+		return dbUsername;
+	}
+
+	public String getDbPassword() {
+		return dbPassword;
+	}
+
+	public String getDbRequest() {
+		return dbRequest;
+	}
+
+	public String getDbRequestFile() {
+		return dbRequestFile;
+	}
+
+	public String getGitRepository() {
+		return gitRepository;
+	}
+
+	public String getGitRefFilter() {
+		return gitRefFilter;
+	}
+
+	public String getMavenMetadataURL() {
+		return mavenMetadataURL;
+	}
+
+	public String getMavenVersionFilter() {
+		return mavenVersionFilter;
+	}
+
+	public int getMavenNewestCount() {
+		return mavenNewestCount;
+	}
+
+	public String getCommandNodeLabel() {
+		return commandNodeLabel;
+	}
+
+	public String getFallbackValue() {
+		return fallbackValue;
+	}
+
+	public String getInputDelimiter() {
+		return inputDelimiter;
+	}
+
+	/**
+	 * Splits choices with the input delimiter and joins selected values with the multi-select delimiter.
+	 */
+	public ChoiceDelimiter getDelimiter() {
+		return delimiter;
+	}
+
+	/**
+	 * The levels compiled from the column names of a multi-level parameter, null for other types.
+	 */
+	public MultiLevelChoiceLevels getMultiLevelChoiceLevels() {
+		return multiLevelChoiceLevels;
+	}
+}
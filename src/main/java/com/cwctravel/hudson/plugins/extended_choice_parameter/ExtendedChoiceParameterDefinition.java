@@ -7,23 +7,20 @@
 package com.cwctravel.hudson.plugins.extended_choice_parameter;
 
 import hudson.Extension;
+import hudson.Util;
+import hudson.model.AbstractProject;
+import hudson.model.Item;
 import hudson.model.ParameterValue;
 import hudson.model.ParameterDefinition;
+import hudson.security.AccessControlled;
 import hudson.util.FormValidation;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileReader;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.io.StringWriter;
 import java.net.Socket;
 import java.net.URL;
 import java.nio.charset.Charset;
-import java.sql.DriverManager;
-import java.sql.PreparedStatement;
-import java.sql.ResultSet;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -38,6 +35,7 @@ import java.util.logging.Logger;
 
 import javax.servlet.ServletException;
 
+import jenkins.model.Jenkins;
 import net.sf.json.JSONArray;
 import net.sf.json.JSONObject;
 
@@ -47,13 +45,13 @@ import org.apache.tools.ant.Project;
 import org.apache.tools.ant.taskdefs.Property;
 import org.kohsuke.stapler.DataBoundConstructor;
 import org.kohsuke.stapler.QueryParameter;
+import org.kohsuke.stapler.Stapler;
 import org.kohsuke.stapler.StaplerRequest;
+import org.kohsuke.stapler.StaplerResponse;
 
-import au.com.bytecode.opencsv.CSVReader;
 import ch.ethz.ssh2.ChannelCondition;
 import ch.ethz.ssh2.Connection;
 import ch.ethz.ssh2.Session;
-import ch.ethz.ssh2.StreamGobbler;
 
 public class ExtendedChoiceParameterDefinition extends ParameterDefinition {
 	private static final long serialVersionUID = -2946187268529865645L;
@@ -74,6 +72,8 @@ public class ExtendedChoiceParameterDefinition extends ParameterDefinition {
         
 	public static final String PARAMETER_TYPE_MULTI_LEVEL_MULTI_SELECT = "PT_MULTI_LEVEL_MULTI_SELECT";
 
+	private static final long SNAPSHOT_TTL = Long.getLong(ExtendedChoiceParameterDefinition.class.getName() + ".snapshotTTL", 60000L);
+
 	@Extension
 	public static class DescriptorImpl extends ParameterDescriptor {
 		@Override
@@ -210,7 +210,7 @@ public class ExtendedChoiceParameterDefinition extends ParameterDefinition {
 					}
 				} else {
 					Connection connection = new Connection(sshHostname);
-					connection.connect();
+					connection.connect(null, SSHCommandChoiceSource.CONNECT_TIMEOUT, SSHCommandChoiceSource.KEX_TIMEOUT);
 
 					boolean isAuthenticated;
 					if (!StringUtils.isBlank(sshPublicKey)) {
@@ -241,6 +241,17 @@ public class ExtendedChoiceParameterDefinition extends ParameterDefinition {
 			return FormValidation.ok();
 		}
 
+		public FormValidation doCheckGitRepository(@QueryParameter final String gitRepository) {
+			if (StringUtils.isBlank(gitRepository)) {
+				return FormValidation.ok();
+			}
+			File repository = new File(gitRepository);
+			if (!new File(repository, "refs").isDirectory() && !new File(repository, ".git/refs").isDirectory()) {
+				return FormValidation.error(String.format("%s is not a git repository", gitRepository));
+			}
+			return FormValidation.ok();
+		}
+
 		public FormValidation doCheckDbDriver(@QueryParameter final String dbURL, @QueryParameter final String dbDriver) {
 			if (StringUtils.isBlank(dbURL)) {
 				return FormValidation.ok();
@@ -324,12 +335,52 @@ public class ExtendedChoiceParameterDefinition extends ParameterDefinition {
 
 	private String dbRequestFile;
 
-	@DataBoundConstructor
+	private String gitRepository;
+
+	private String gitRefFilter;
+
+	private String mavenMetadataURL;
+
+	private String mavenVersionFilter;
+
+	private int mavenNewestCount;
+
+	private String commandNodeLabel;
+
+	private String fallbackValue;
+
+	private String inputDelimiter;
+
+	private transient volatile ExtendedChoiceParameterConfig config;
+
+	private transient volatile ChoiceState state;
+
+	private transient volatile MultiLevelChoicePayload multiLevelChoicePayload;
+
+	/**
+	 * @deprecated use the {@link DataBoundConstructor}, which also takes the settings of the newer choice sources
+	 */
+	@Deprecated
 	public ExtendedChoiceParameterDefinition(String name, String type, String value, String propertyFile,
 			String propertyKey, String defaultValue, String defaultPropertyFile, String defaultPropertyKey,
 			boolean quoteValue, String command, String sshUsername, String sshPassword, String sshHostname,
 			String sshPublicKey, int visibleItemCount, String description, String dbURL, String dbDriver,
 			String dbPassword, String dbUsername, String dbRequest, String dbRequestFile,String multiSelectDelimiter) {
+		this(name, type, value, propertyFile, propertyKey, defaultValue, defaultPropertyFile, defaultPropertyKey,
+				quoteValue, command, sshUsername, sshPassword, sshHostname, sshPublicKey, visibleItemCount, description,
+				dbURL, dbDriver, dbPassword, dbUsername, dbRequest, dbRequestFile, multiSelectDelimiter, null, null,
+				null, null, 0, null, null, null);
+	}
+
+	@DataBoundConstructor
+	public ExtendedChoiceParameterDefinition(String name, String type, String value, String propertyFile,
+			String propertyKey, String defaultValue, String defaultPropertyFile, String defaultPropertyKey,
+			boolean quoteValue, String command, String sshUsername, String sshPassword, String sshHostname,
+			String sshPublicKey, int visibleItemCount, String description, String dbURL, String dbDriver,
+			String dbPassword, String dbUsername, String dbRequest, String dbRequestFile,String multiSelectDelimiter,
+			String gitRepository, String gitRefFilter,
+			String mavenMetadataURL, String mavenVersionFilter, int mavenNewestCount, String commandNodeLabel,
+			String fallbackValue, String inputDelimiter) {
 		super(name, description);
 		this.type = type;
 
@@ -361,16 +412,56 @@ public class ExtendedChoiceParameterDefinition extends ParameterDefinition {
 			multiSelectDelimiter = ",";
 	}
 		this.multiSelectDelimiter = multiSelectDelimiter;
+		this.gitRepository = gitRepository;
+		this.gitRefFilter = gitRefFilter;
+		this.mavenMetadataURL = mavenMetadataURL;
+		this.mavenVersionFilter = mavenVersionFilter;
+		this.mavenNewestCount = mavenNewestCount;
+		this.commandNodeLabel = commandNodeLabel;
+		this.fallbackValue = fallbackValue;
+		this.inputDelimiter = inputDelimiter;
+		this.state = new ChoiceState();
+		publishConfig();
+	}
+
+	protected Object readResolve() {
+		state = new ChoiceState();
+		publishConfig();
+		return this;
+	}
+
+	/**
+	 * Publishes the current field values as a new {@link ExtendedChoiceParameterConfig}, which invalidates every
+	 * cache derived from the previous one.
+	 */
+	private synchronized void publishConfig() {
+		config = new ExtendedChoiceParameterConfig(this);
+	}
+
+	/**
+	 * Returns the current configuration. Callers should read it once and use that instance for the whole
+	 * computation, so they are not affected by a concurrent configuration change.
+	 */
+	public ExtendedChoiceParameterConfig getConfig() {
+		ExtendedChoiceParameterConfig current = config;
+		if(current == null) {
+			synchronized(this) {
+				if(config == null) {
+					publishConfig();
+				}
+				current = config;
+			}
+		}
+		return current;
 	}
 
 	private Map<String, Boolean> computeDefaultValueMap() {
 		Map<String, Boolean> defaultValueMap = null;
-		String effectiveDefaultValue = getEffectiveDefaultValue();
-		if (!StringUtils.isBlank(effectiveDefaultValue)) {
+		List<String> defaultValues = getChoiceSnapshot().getDefaultValues();
+		if (!defaultValues.isEmpty()) {
 			defaultValueMap = new HashMap<String, Boolean>();
-			String[] defaultValues = StringUtils.split(effectiveDefaultValue, ',');
 			for (String value : defaultValues) {
-				defaultValueMap.put(StringUtils.trim(value), true);
+				defaultValueMap.put(value, true);
 			}
 		}
 		return defaultValueMap;
@@ -382,19 +473,16 @@ public class ExtendedChoiceParameterDefinition extends ParameterDefinition {
 		if (requestValues == null || requestValues.length == 0) {
 			return getDefaultParameterValue();
 		}
-		if (PARAMETER_TYPE_TEXT_BOX.equals(type)) {
+		ExtendedChoiceParameterConfig config = getConfig();
+		if (PARAMETER_TYPE_TEXT_BOX.equals(config.getType())) {
 			return new ExtendedChoiceParameterValue(getName(), requestValues[0]);
 		}
 		else {
-			String valueStr = getEffectiveValue();
-			if (valueStr != null) {
+			ChoiceSnapshot current = getChoiceSnapshot();
+			if (current.isResolved()) {
 				List<String> result = new ArrayList<String>();
 
-				String[] values = valueStr.split(",");
-				Set<String> valueSet = new HashSet<String>();
-				for (String value : values) {
-					valueSet.add(value);
-				}
+				Set<String> valueSet = new HashSet<String>(current.getChoices());
 
 				for (String requestValue : requestValues) {
 					if (valueSet.contains(requestValue)) {
@@ -402,7 +490,7 @@ public class ExtendedChoiceParameterDefinition extends ParameterDefinition {
 					}
 				}
 
-				return new ExtendedChoiceParameterValue(getName(), StringUtils.join(result, getMultiSelectDelimiter()));
+				return new ExtendedChoiceParameterValue(getName(), config.getDelimiter().joinValues(result));
 			}
 		}
 		return null;
@@ -410,6 +498,8 @@ public class ExtendedChoiceParameterDefinition extends ParameterDefinition {
 
 	@Override
 	public ParameterValue createValue(StaplerRequest request, JSONObject jO) {
+		ExtendedChoiceParameterConfig config = getConfig();
+		String type = config.getType();
 		Object value = jO.get("value");
 		String strValue = "";
 		if (value instanceof String) {
@@ -420,29 +510,27 @@ public class ExtendedChoiceParameterDefinition extends ParameterDefinition {
 			if (   type.equals(PARAMETER_TYPE_MULTI_LEVEL_SINGLE_SELECT)
 				  || type.equals(PARAMETER_TYPE_MULTI_LEVEL_MULTI_SELECT))
 			{
-				final int valuesBetweenLevels = this.value.split(",").length;
+				final int valuesBetweenLevels = Math.max(config.getMultiLevelChoiceLevels().size(), 1);
 				
+				StringBuilder joinedValues = new StringBuilder();
 				Iterator it = jsonValues.iterator();
 				for (int i = 1; it.hasNext(); i++)
 				{
 					String nextValue = it.next().toString();
 					if (i % valuesBetweenLevels == 0)
 					{
-						if (strValue.length() > 0)
-						{
-							strValue += getMultiSelectDelimiter();
-						}
-						strValue += nextValue;
+						config.getDelimiter().appendValueTo(joinedValues, nextValue);
 					}
 				}
+				strValue = joinedValues.toString();
 			}
 			else
 			{
-				strValue = StringUtils.join(jsonValues.iterator(), getMultiSelectDelimiter());
+				strValue = config.getDelimiter().joinValues(jsonValues.iterator());
 			}
 		}
 
-		if (quoteValue) {
+		if (config.isQuoteValue()) {
 			strValue = "\"" + strValue + "\"";
 		}
 		return new ExtendedChoiceParameterValue(getName(), strValue);
@@ -450,9 +538,10 @@ public class ExtendedChoiceParameterDefinition extends ParameterDefinition {
 
 	@Override
 	public ParameterValue getDefaultParameterValue() {
-		String defaultValue = getEffectiveDefaultValue();
+		ExtendedChoiceParameterConfig config = getConfig();
+		String defaultValue = computeDefaultValue();
 		if (!StringUtils.isBlank(defaultValue)) {
-			if (quoteValue) {
+			if (config.isQuoteValue()) {
 				defaultValue = "\"" + defaultValue + "\"";
 			}
 			return new ExtendedChoiceParameterValue(getName(), defaultValue);
@@ -460,168 +549,157 @@ public class ExtendedChoiceParameterDefinition extends ParameterDefinition {
 		return super.getDefaultParameterValue();
 	}
 
-	// note that computeValue is not called by multiLevel.jelly
-	private String computeValue(String value, String propertyFilePath, String propertyKey) {
-		if (!StringUtils.isBlank(propertyFile) && !StringUtils.isBlank(propertyKey)) {
-			try {
+	/**
+	 * Resolves the list described by <code>spec</code> through the first applicable {@link ChoiceSource}.
+	 * When the source failed and has never succeeded before, the choices fall back to the configured fallback value;
+	 * returns null if there is none or no source applies.
+	 */
+	// note that resolveChoices is not called by multiLevel.jelly
+	private List<String> resolveChoices(ExtendedChoiceParameterConfig config, ChoiceSpec spec) {
+		try {
+			return ChoiceSourceCache.resolve(config, spec, Integer.MAX_VALUE);
+		}
+		catch (IOException e) {
+			// an open circuit was already reported when it opened
+			Level level = e instanceof ChoiceSourceCircuitBreaker.CircuitOpenException ? Level.FINE : Level.WARNING;
+			LOG.log(level, String.format("Could not resolve the choices of parameter %s", getName()), e);
+			if (!spec.isDefaultValue() && !StringUtils.isBlank(config.getFallbackValue())) {
+				return config.getDelimiter().split(config.getFallbackValue());
+			}
+			return null;
+		}
+	}
 
-				Project project = new Project();
-				Property property = new Property();
-				property.setProject(project);
+	/**
+	 * Returns the default value as it is submitted, from the same snapshot as the choices. The default of a parameter
+	 * that takes a single value is a {@link ChoiceSpec#isLiteral() literal} single entry; the defaults of the other
+	 * types are joined with the multi-select delimiter.
+	 */
+	private String computeDefaultValue() {
+		ChoiceSnapshot current = getChoiceSnapshot();
+		List<String> defaultValues = current.getDefaultValues();
+		return defaultValues.isEmpty() ? null : getConfig().getDelimiter().joinValues(defaultValues);
+	}
 
-				File propertyFile = new File(propertyFilePath);
-				if (propertyFile.exists()) {
-					property.setFile(propertyFile);
-				}
-				else {
-					URL propertyFileUrl = new URL(propertyFilePath);
-					property.setUrl(propertyFileUrl);
+	/**
+	 * Returns the resolved choices, recomputing them when they are older than the snapshot TTL
+	 * (<code>-Dcom.cwctravel.hudson.plugins.extended_choice_parameter.ExtendedChoiceParameterDefinition.snapshotTTL</code>
+	 * in milliseconds, 60 seconds by default). Only the first request after the TTL waits for the backend; the
+	 * requests that arrive while it does are served the previous snapshot of the same configuration.
+	 */
+	public ChoiceSnapshot getChoiceSnapshot() {
+		ExtendedChoiceParameterConfig config = getConfig();
+		ChoiceState state = this.state;
+		ChoiceSnapshot current = state.snapshot;
+		ChoiceChange change = null;
+		if(!isCurrent(current, config)) {
+			if(current != null && current.getGeneration() == config.getGeneration()) {
+				if(!state.lock.tryLock()) {
+					return current;
 				}
-				property.execute();
-
-				return project.getProperty(propertyKey);
-			} catch (Exception e) {
-
 			}
-		} else if (!StringUtils.isBlank(value)) {
-			return value;
-		} else if (!StringUtils.isBlank(command)) {
-			if (!StringUtils.isBlank(sshHostname)) {
-				return execSSHCommand();
-			} else {
-				return execCommand();
+			else {
+				state.lock.lock();
 			}
-		} else if (!StringUtils.isBlank(getDbURL())) {
 			try {
-				Class.forName(getDbDriver());
-				java.sql.Connection connection = DriverManager.getConnection(getDbURL(), getDbUsername(),
-						getDbPassword());
-				PreparedStatement preparedStatement = null;
-				if (StringUtils.isBlank(getDbRequestFile())) {
-					preparedStatement = connection.prepareStatement(getDbRequest());
-				} else {
-					URL url = new URL(getDbRequestFile());
-					InputStream inputStream = url.openStream();
-					StringWriter writer = new StringWriter();
-					IOUtils.copy(inputStream, writer, Charset.defaultCharset().name());
-					String request = writer.toString();
-					writer.close();
-					inputStream.close();
-					preparedStatement = connection.prepareStatement(request);
-				}
-				ResultSet resultSet = preparedStatement.executeQuery();
-				String result = null;
-				while (resultSet.next()) {
-					if (result == null) {
-						result = resultSet.getString(1);
-						continue;
+				current = state.snapshot;
+				if(!isCurrent(current, config)) {
+					ChoiceSnapshot previous = current;
+					List<String> choices = resolveChoices(config, ChoiceSpec.forChoices(config));
+					List<String> defaultValues = new ArrayList<String>();
+					ChoiceSpec defaultSpec = ChoiceSpec.forDefaultValue(config);
+					List<String> resolvedDefaultValues = resolveChoices(config, defaultSpec);
+					if(resolvedDefaultValues != null) {
+						for(String defaultValue: resolvedDefaultValues) {
+							// a literal default is submitted as it is
+							defaultValues.add(defaultSpec.isLiteral() ? defaultValue : StringUtils.trim(defaultValue));
+						}
+					}
+					current = ChoiceSnapshot.create(previous, config, choices, defaultValues, System.currentTimeMillis());
+					state.snapshot = current;
+					// a failed resolution is not reported as every choice having been removed
+					if(previous != null && previous.getVersion() != current.getVersion() && previous.isResolved()
+							&& current.isResolved()) {
+						change = ChoiceChange.between(previous, current);
+						if(change != null) {
+							state.history.add(change);
+						}
 					}
-					result = resultSet.getString(1);
 				}
-				return result;
-			} catch (Exception e) {
-				LOG.log(Level.SEVERE, e.getMessage(), e);
-				return null;
+			}
+			finally {
+				state.lock.unlock();
 			}
 		}
-		return null;
+		if(change != null) {
+			ChoiceChangeListener.fireChanged(this, change);
+		}
+		return current;
 	}
 
-	private String execSSHCommand() {
-		Connection connection = new Connection(sshHostname);
-		Session session = null;
-		InputStream stdout = null;
-		BufferedReader bufferedReader = null;
-		try {
-			connection.connect();
+	/**
+	 * Returns the last snapshot without refreshing it, or null if there is none yet.
+	 */
+	ChoiceSnapshot getCachedChoiceSnapshot() {
+		return state.snapshot;
+	}
 
-			boolean isAuthenticated;
-			if (!StringUtils.isBlank(sshPublicKey)) {
-				isAuthenticated = connection.authenticateWithPublicKey(sshUsername, sshPublicKey.toCharArray(), null);
-			} else {
-				isAuthenticated = connection.authenticateWithPassword(sshUsername, sshPassword);
-			}
+	ChoiceState getState() {
+		return state;
+	}
 
-			if (!isAuthenticated) {
-				FormValidation.error("Authentification failed with " + sshHostname);
-				return null;
-			}
+	/**
+	 * Takes over the snapshot and history of the definition this one replaces.
+	 */
+	void setState(ChoiceState state) {
+		this.state = state;
+	}
 
-			session = connection.openSession();
-			session.execCommand(command);
-			stdout = new StreamGobbler(session.getStdout());
-			bufferedReader = new BufferedReader(new InputStreamReader(stdout));
-
-			String result = null;
-			String line = null;
-			while ((line = bufferedReader.readLine()) != null) {
-				if (result == null) {
-					result = line;
-					continue;
-				}
-				result += "," + line;
-			}
-			session.waitForCondition(ChannelCondition.EXIT_STATUS, 60000);
-			if (session.getExitStatus() != 0) {
-				FormValidation.error(String.format("Commad: %s, failed on: %s", command, sshHostname));
-			}
-			return result;
-		} catch (IOException e) {
-			throw new RuntimeException(e);
-		} finally {
-			// FIXME potential Leak!
-			try {
-				if (stdout != null) {
-					stdout.close();
-				}
-				if (bufferedReader != null) {
-					bufferedReader.close();
-				}
-				if (session != null) {
-					session.close();
-				}
-				if (connection != null) {
-					connection.close();
-				}
-			} catch (IOException e) {
-				throw new RuntimeException(e);
-			}
-		}
+	MultiLevelChoicePayload getCachedMultiLevelChoicePayload() {
+		return multiLevelChoicePayload;
 	}
 
-	private String execCommand() {
-		String[] envs = new String[System.getenv().size()];
-		int i = 0;
-		for (String key : System.getenv().keySet()) {
-			envs[i] = String.format("%s=%s", key, System.getenv().get(key));
-			i++;
-		}
-		try {
-			Process process = Runtime.getRuntime().exec(command, envs);
-			if (process.waitFor() != 0) {
-				StringWriter writer = new StringWriter();
-				IOUtils.copy(process.getErrorStream(), writer, Charset.defaultCharset().name());
-				FormValidation.error(writer.toString());
-				writer.close();
-			} else {
-				InputStreamReader inputStreamReader = new InputStreamReader(process.getInputStream());
-				BufferedReader bufferedReader = new BufferedReader(inputStreamReader);
-				String result = null;
-				String line;
-				while ((line = bufferedReader.readLine()) != null) {
-					if (result == null) {
-						result = line;
-					}
-					result += "," + line;
-				}
-				return result;
-			}
-		} catch (IOException e) {
-			throw new RuntimeException(e);
-		} catch (InterruptedException e) {
-			throw new RuntimeException(e);
-		}
-		return null;
+	/**
+	 * Returns the recent changes of the choices, newest first. Changes are detected when the choices are refreshed
+	 * and only kept in memory, across configuration changes of the job.
+	 */
+	public List<ChoiceChange> getChoiceChanges() {
+		return state.history.getChanges();
+	}
+
+	private static boolean isCurrent(ChoiceSnapshot snapshot, ExtendedChoiceParameterConfig config) {
+		return snapshot != null && snapshot.getGeneration() == config.getGeneration()
+				&& System.currentTimeMillis() - snapshot.getTimestamp() <= SNAPSHOT_TTL;
+	}
+
+	/**
+	 * The resolved choices are what the build form shows, so reading them, which may also query the backend, needs
+	 * the same permission as building the project.
+	 */
+	private static void checkBuildPermission(StaplerRequest req) {
+		AccessControlled project = req.findAncestorObject(AbstractProject.class);
+		(project == null ? Jenkins.getInstance() : project).checkPermission(Item.BUILD);
+	}
+
+	public void doChoices(StaplerRequest req, StaplerResponse rsp) throws IOException {
+		checkBuildPermission(req);
+		ChoiceSnapshot current = getChoiceSnapshot();
+		ExtendedChoiceParametersAction.writeJSON(req, rsp, current.getETag(), current.toJSON(getName(), getType()));
+	}
+
+	/**
+	 * Serves the recent changes of the choices, newest first, after refreshing them if they expired.
+	 */
+	public void doHistory(StaplerRequest req, StaplerResponse rsp) throws IOException {
+		checkBuildPermission(req);
+		ChoiceSnapshot current = getChoiceSnapshot();
+		ChoiceHistory history = state.history;
+		JSONObject result = new JSONObject();
+		result.put("name", getName());
+		result.put("version", current.getVersion());
+		result.put("changes", history.toJSON());
+		String eTag = "\"" + current.getVersion() + "-" + history.getLatestVersion() + "\"";
+		ExtendedChoiceParametersAction.writeJSON(req, rsp, eTag, result);
 	}
 
 	@Override
@@ -629,138 +707,124 @@ public class ExtendedChoiceParameterDefinition extends ParameterDefinition {
 		return type;
 	}
 
-	public void setType(String type) {
+	public synchronized void setType(String type) {
 		this.type = type;
+		publishConfig();
 	}
 
 	public String getEffectiveDefaultValue() {
-		return computeValue(defaultValue, defaultPropertyFile, defaultPropertyKey);
+		return computeDefaultValue();
 	}
 
 	public String getDefaultValue() {
 		return defaultValue;
 	}
 
-	public void setDefaultValue(String defaultValue) {
+	public synchronized void setDefaultValue(String defaultValue) {
 		this.defaultValue = defaultValue;
+		publishConfig();
 	}
 
 	public String getPropertyFile() {
 		return propertyFile;
 	}
 
-	public void setPropertyFile(String propertyFile) {
+	public synchronized void setPropertyFile(String propertyFile) {
 		this.propertyFile = propertyFile;
+		publishConfig();
 	}
 
 	public String getDefaultPropertyKey() {
 		return defaultPropertyKey;
 	}
 
-	public void setDefaultPropertyKey(String defaultPropertyKey) {
+	public synchronized void setDefaultPropertyKey(String defaultPropertyKey) {
 		this.defaultPropertyKey = defaultPropertyKey;
+		publishConfig();
 	}
 
 	public String getEffectiveValue() {
-		return computeValue(value, propertyFile, propertyKey);
+		ChoiceSnapshot current = getChoiceSnapshot();
+		return current.isResolved() ? getConfig().getDelimiter().join(current.getChoices()) : null;
+	}
+
+	/**
+	 * Returns the choices the build form offers, from the same snapshot as the JSON endpoints.
+	 */
+	public List<String> getEffectiveChoices() {
+		return getChoiceSnapshot().getChoices();
 	}
 	
-	private ArrayList<Integer> columnIndicesForDropDowns(String[] headerColumns)
+	private MultiLevelChoicePayload getMultiLevelChoicePayload() throws Exception
 	{
-		ArrayList<Integer> columnIndicesForDropDowns = new ArrayList<Integer>();
-		
-		String[] dropDownNames = value.split(",");
+		ExtendedChoiceParameterConfig config = getConfig();
+		File file = new File(config.getPropertyFile());
+		String sourceKey = MultiLevelChoiceTree.sourceKey(file, config.getValue());
 
-		for (String dropDownName : dropDownNames)
+		MultiLevelChoicePayload payload = multiLevelChoicePayload;
+		if (payload == null || !payload.getSourceKey().equals(sourceKey))
 		{
-			for (int i = 0; i < headerColumns.length; ++i)
+			MultiLevelChoiceLevels levels = config.getMultiLevelChoiceLevels();
+			if (levels == null)
 			{
-				if (headerColumns[i].equals(dropDownName))
-				{
-					columnIndicesForDropDowns.add(new Integer(i));
-				}
+				levels = MultiLevelChoiceLevels.compile(config.getValue());
 			}
+			payload = new MultiLevelChoicePayload(sourceKey, MultiLevelChoiceIndex.load(file, levels));
+			multiLevelChoicePayload = payload;
 		}
-		
-		return columnIndicesForDropDowns;
+		return payload;
 	}
-	
+
+	/**
+	 * Whether rows of the multi-level file were left out because it exceeds the limits of
+	 * {@link MultiLevelChoiceTree}.
+	 */
+	public boolean isMultiLevelChoicesTruncated() throws Exception
+	{
+		return getMultiLevelChoicePayload().getTree().isTruncated();
+	}
+
 	LinkedHashMap<String, LinkedHashSet<String>> calculateChoicesByDropdownId() throws Exception
 	{
-		List<String[]> fileLines =
-			new CSVReader(new FileReader(propertyFile), '\t').readAll();
+		return getMultiLevelChoicePayload().getTree().toChoicesByDropdownId(
+						getName() + " dropdown MultiLevelMultiSelect 0");
+	}
+
+	/**
+	 * Serves the multi-level choices in the compact form described by {@link MultiLevelChoiceTree#toJSON()},
+	 * from which <code>multiLevel.jelly</code> rebuilds the dropdowns in the browser.
+	 */
+	public void doMultiLevelChoices(StaplerRequest req, StaplerResponse rsp) throws Exception
+	{
+		checkBuildPermission(req);
+		getMultiLevelChoicePayload().write(req, rsp);
+	}
 
-		if (fileLines.size() < 2)
+	/**
+	 * URL of {@link #doMultiLevelChoices}, or null when the page is not rendered below a project.
+	 */
+	public String getMultiLevelChoicesUrl()
+	{
+		StaplerRequest request = Stapler.getCurrentRequest();
+		if (request == null)
 		{
-			throw new Exception("Multi level tab delimited file must have at least 2 "
-							+ "lines (one for the header, and one or more for the data)");
+			return null;
 		}
-
-		ArrayList<Integer> columnIndicesForDropDowns =
-						columnIndicesForDropDowns(fileLines.get(0));
-		
-		List<String[]> dataLines = fileLines.subList(1, fileLines.size());
-
-		LinkedHashMap<String, LinkedHashSet<String>> choicesByDropdownId =
-						new LinkedHashMap<String, LinkedHashSet<String>>();
-
-		String prefix = getName() + " dropdown MultiLevelMultiSelect 0";
-		choicesByDropdownId.put(prefix, new LinkedHashSet<String>());
-
-		for (int i=0; i < columnIndicesForDropDowns.size(); ++i)
+		AbstractProject<?, ?> project = request.findAncestorObject(AbstractProject.class);
+		if (project == null)
 		{
-			String prettyCurrentColumnName = value.split(",")[i];
-			prettyCurrentColumnName = prettyCurrentColumnName.toLowerCase();
-			prettyCurrentColumnName = prettyCurrentColumnName.replace("_", " ");
-
-			for (String[] dataLine : dataLines)
-			{
-				String priorLevelDropdownId = prefix;
-				String currentLevelDropdownId = prefix;
-
-				int column = 0;
-				for (int j=0; j <= i; ++j)
-				{
-					column = columnIndicesForDropDowns.get(j);
-
-					if (j < i)
-					{
-						priorLevelDropdownId += " " + dataLine[column];
-					}
-					currentLevelDropdownId += " " + dataLine[column];
-				}					
-				if (i != columnIndicesForDropDowns.size() - 1)
-				{
-					choicesByDropdownId.put(currentLevelDropdownId, new LinkedHashSet<String>());
-				}
-				LinkedHashSet<String> choicesForPriorDropdown
-								= choicesByDropdownId.get(priorLevelDropdownId);
-				choicesForPriorDropdown.add("Select a " + prettyCurrentColumnName
-																		+ "...");
-				choicesForPriorDropdown.add(dataLine[column]);
-			}				
+			return null;
 		}
-
-		return choicesByDropdownId;
+		return request.getContextPath() + "/" + project.getUrl() + ExtendedChoiceParametersAction.URL_NAME + "/"
+						+ Util.rawEncode(getName()) + "/multiLevelChoices";
 	}
 	
 	public String getMultiLevelDropdownIds() throws Exception
 	{
-		String dropdownIds = new String();
-		
 		LinkedHashMap<String, LinkedHashSet<String>> choicesByDropdownId = 
 						calculateChoicesByDropdownId();
 		
-		for (String id : choicesByDropdownId.keySet())
-		{
-			if (dropdownIds.length() > 0)
-			{
-				dropdownIds += ",";
-			}
-			dropdownIds += id;
-		}
-				
-		return dropdownIds;
+		return StringUtils.join(choicesByDropdownId.keySet(), ",");
 		
 		/* dropdownIds is of a form like this:
 		return name + " dropdown MultiLevelMultiSelect 0," 
@@ -783,19 +847,9 @@ public class ExtendedChoiceParameterDefinition extends ParameterDefinition {
 		
 		Map<String, String> collapsedMap = new LinkedHashMap<String, String>();
 		
-		for (String dropdownId : choicesByDropdownId.keySet())
+		for (Map.Entry<String, LinkedHashSet<String>> entry : choicesByDropdownId.entrySet())
 		{
-			String choices = new String();
-			for (String choice : choicesByDropdownId.get(dropdownId))
-			{
-				if (choices.length() > 0)
-				{
-					choices += ",";
-				}
-				choices += choice;
-			}
-			
-			collapsedMap.put(dropdownId, choices);
+			collapsedMap.put(entry.getKey(), StringUtils.join(entry.getValue(), ","));
 		}
 				
 		/* collapsedMap is of a form like this:
@@ -818,16 +872,18 @@ public class ExtendedChoiceParameterDefinition extends ParameterDefinition {
 		return value;
 	}
 
-	public void setValue(String value) {
+	public synchronized void setValue(String value) {
 		this.value = value;
+		publishConfig();
 	}
 
 	public String getPropertyKey() {
 		return propertyKey;
 	}
 
-	public void setPropertyKey(String propertyKey) {
+	public synchronized void setPropertyKey(String propertyKey) {
 		this.propertyKey = propertyKey;
+		publishConfig();
 	}
 
 	public String getDefaultPropertyFile() {
@@ -838,28 +894,32 @@ public class ExtendedChoiceParameterDefinition extends ParameterDefinition {
 		return quoteValue;
 	}
 
-	public void setQuoteValue(boolean quoteValue) {
+	public synchronized void setQuoteValue(boolean quoteValue) {
 		this.quoteValue = quoteValue;
+		publishConfig();
 	}
 
 	public int getVisibleItemCount() {
 		return visibleItemCount;
 	}
 
-	public void setVisibleItemCount(int visibleItemCount) {
+	public synchronized void setVisibleItemCount(int visibleItemCount) {
 		this.visibleItemCount = visibleItemCount;
+		publishConfig();
 	}
 
 	public String getMultiSelectDelimiter() {
 		return this.multiSelectDelimiter;
 	}
 	
-	public void setMultiSelectDelimiter(final String multiSelectDelimiter) {
+	public synchronized void setMultiSelectDelimiter(final String multiSelectDelimiter) {
 		this.multiSelectDelimiter = multiSelectDelimiter;
+		publishConfig();
 	}
 
-	public void setDefaultPropertyFile(String defaultPropertyFile) {
+	public synchronized void setDefaultPropertyFile(String defaultPropertyFile) {
 		this.defaultPropertyFile = defaultPropertyFile;
+		publishConfig();
 	}
 
 	public Map<String, Boolean> getDefaultValueMap() {
@@ -870,87 +930,170 @@ public class ExtendedChoiceParameterDefinition extends ParameterDefinition {
 		return sshUsername;
 	}
 
-	public void setSshUsername(String sshUsername) {
+	public synchronized void setSshUsername(String sshUsername) {
 		this.sshUsername = sshUsername;
+		publishConfig();
 	}
 
 	public String getSshPassword() {
 		return sshPassword;
 	}
 
-	public void setSshPassword(String sshPassword) {
+	public synchronized void setSshPassword(String sshPassword) {
 		this.sshPassword = sshPassword;
+		publishConfig();
 	}
 
 	public String getSshHostname() {
 		return sshHostname;
 	}
 
-	public void setSshHostname(String sshHostname) {
+	public synchronized void setSshHostname(String sshHostname) {
 		this.sshHostname = sshHostname;
+		publishConfig();
 	}
 
 	public String getCommand() {
 		return command;
 	}
 
-	public void setCommand(String command) {
+	public synchronized void setCommand(String command) {
 		this.command = command;
+		publishConfig();
 	}
 
 	public String getSshPrivateKey() {
 		return sshPublicKey;
 	}
 
-	public void setSshPrivateKey(String sshPrivateKey) {
+	public synchronized void setSshPrivateKey(String sshPrivateKey) {
 		this.sshPublicKey = sshPrivateKey;
+		publishConfig();
 	}
 
 	public String getDbDriver() {
 		return dbDriver;
 	}
 
-	public void setDbDriver(String dbDriver) {
+	public synchronized void setDbDriver(String dbDriver) {
 		this.dbDriver = dbDriver;
+		publishConfig();
 	}
 
 	public String getDbURL() {
 		return dbURL;
 	}
 
-	public void setDbURL(String dbURL) {
+	public synchronized void setDbURL(String dbURL) {
 		this.dbURL = dbURL;
+		publishConfig();
 	}
 
 	public String getDbUsername() {
 		return dbUsername;
 	}
 
-	public void setDbUsername(String dbUsername) {
+	public synchronized void setDbUsername(String dbUsername) {
 		this.dbUsername = dbUsername;
+		publishConfig();
 	}
 
 	public String getDbPassword() {
 		return dbPassword;
 	}
 
-	public void setDbPassword(String dbPassword) {
+	public synchronized void setDbPassword(String dbPassword) {
 		this.dbPassword = dbPassword;
+		publishConfig();
 	}
 
 	public String getDbRequest() {
 		return dbRequest;
 	}
 
-	public void setDbRequest(String dbRequest) {
+	public synchronized void setDbRequest(String dbRequest) {
 		this.dbRequest = dbRequest;
+		publishConfig();
 	}
 
 	public String getDbRequestFile() {
 		return dbRequestFile;
 	}
 
-	public void setDbRequestFile(String dbRequestFile) {
+	public synchronized void setDbRequestFile(String dbRequestFile) {
 		this.dbRequestFile = dbRequestFile;
+		publishConfig();
+	}
+
+	public String getGitRepository() {
+		return gitRepository;
+	}
+
+	public synchronized void setGitRepository(String gitRepository) {
+		this.gitRepository = gitRepository;
+		publishConfig();
+	}
+
+	public String getGitRefFilter() {
+		return gitRefFilter;
+	}
+
+	public synchronized void setGitRefFilter(String gitRefFilter) {
+		this.gitRefFilter = gitRefFilter;
+		publishConfig();
+	}
+
+	public String getMavenMetadataURL() {
+		return mavenMetadataURL;
+	}
+
+	public synchronized void setMavenMetadataURL(String mavenMetadataURL) {
+		this.mavenMetadataURL = mavenMetadataURL;
+		publishConfig();
+	}
+
+	public String getMavenVersionFilter() {
+		return mavenVersionFilter;
+	}
+
+	public synchronized void setMavenVersionFilter(String mavenVersionFilter) {
+		this.mavenVersionFilter = mavenVersionFilter;
+		publishConfig();
+	}
+
+	public int getMavenNewestCount() {
+		return mavenNewestCount;
+	}
+
+	public synchronized void setMavenNewestCount(int mavenNewestCount) {
+		this.mavenNewestCount = mavenNewestCount;
+		publishConfig();
+	}
+
+	public String getCommandNodeLabel() {
+		return commandNodeLabel;
+	}
+
+	public synchronized void setCommandNodeLabel(String commandNodeLabel) {
+		this.commandNodeLabel = commandNodeLabel;
+		publishConfig();
+	}
+
+	public String getFallbackValue() {
+		return fallbackValue;
+	}
+
+	public synchronized void setFallbackValue(String fallbackValue) {
+		this.fallbackValue = fallbackValue;
+		publishConfig();
+	}
+
+	public String getInputDelimiter() {
+		return inputDelimiter;
+	}
+
+	public synchronized void setInputDelimiter(String inputDelimiter) {
+		this.inputDelimiter = inputDelimiter;
+		publishConfig();
 	}
 }
@@ -0,0 +1,111 @@
+/*
+ *Copyright (c) 2013 Costco, Vimil Saju
+ *See the file license.txt for copying permission.
+ */
+
+package com.cwctravel.hudson.plugins.extended_choice_parameter;
+
+import hudson.Extension;
+import hudson.model.ManagementLink;
+
+import java.io.IOException;
+import java.util.List;
+
+import javax.servlet.http.HttpServletResponse;
+
+import jenkins.model.Jenkins;
+
+import org.kohsuke.stapler.StaplerRequest;
+import org.kohsuke.stapler.StaplerResponse;
+
+/**
+ * Shows under <code>Manage Jenkins</code> how often the choice backends are called and how long they take, so that
+ * the effect of the caches can be measured under load, and how much memory the cached choices take.
+ * <ul>
+ * <li><code>extendedChoiceParameters/</code> renders the statistics and memory usage as tables</li>
+ * <li><code>extendedChoiceParameters/statistics</code> returns the statistics as JSON, for load test drivers</li>
+ * <li><code>extendedChoiceParameters/memory</code> returns the memory budgets, usage and truncations as JSON</li>
+ * <li><code>extendedChoiceParameters/reset</code> (POST) starts a new measurement</li>
+ * </ul>
+ */
+@Extension
+public class ExtendedChoiceParameterManagementLink extends ManagementLink {
+	@Override
+	public String getIconFileName() {
+		return "monitor.png";
+	}
+
+	@Override
+	public String getUrlName() {
+		return "extendedChoiceParameters";
+	}
+
+	public String getDisplayName() {
+		return Messages.ExtendedChoiceParameterManagementLink_DisplayName();
+	}
+
+	@Override
+	public String getDescription() {
+		return Messages.ExtendedChoiceParameterManagementLink_Description();
+	}
+
+	public ChoiceSourceStatistics getResolutions() {
+		return ChoiceSourceStatistics.getResolutions();
+	}
+
+	public List<ChoiceSourceStatistics> getSources() {
+		return ChoiceSourceStatistics.getSources();
+	}
+
+	public List<ChoiceBudget.Usage> getMemoryUsage() {
+		return ChoiceBudget.measure();
+	}
+
+	public List<ChoiceBudget.Truncation> getTruncations() {
+		return ChoiceBudget.getTruncations();
+	}
+
+	public int getMaxChoices() {
+		return ChoiceBudget.getMaxChoices();
+	}
+
+	public long getMaxSourceBytes() {
+		return ChoiceBudget.getMaxSourceBytes();
+	}
+
+	public long getMaxTotalBytes() {
+		return ChoiceBudget.getMaxTotalBytes();
+	}
+
+	public long getInFlightBytes() {
+		return ChoiceBudget.getInFlightBytes();
+	}
+
+	public long getRetainedBytes() {
+		return ChoiceBudget.getRetainedBytes();
+	}
+
+	public void doMemory(StaplerRequest req, StaplerResponse rsp) throws IOException {
+		Jenkins.getInstance().checkPermission(Jenkins.ADMINISTER);
+		rsp.setContentType("application/json;charset=UTF-8");
+		rsp.setHeader("Cache-Control", "no-cache");
+		rsp.getWriter().print(ChoiceBudget.toJSON().toString());
+	}
+
+	public void doStatistics(StaplerRequest req, StaplerResponse rsp) throws IOException {
+		Jenkins.getInstance().checkPermission(Jenkins.ADMINISTER);
+		rsp.setContentType("application/json;charset=UTF-8");
+		rsp.setHeader("Cache-Control", "no-cache");
+		rsp.getWriter().print(ChoiceSourceStatistics.allToJSON().toString());
+	}
+
+	public void doReset(StaplerRequest req, StaplerResponse rsp) throws IOException {
+		Jenkins.getInstance().checkPermission(Jenkins.ADMINISTER);
+		if(!"POST".equals(req.getMethod())) {
+			rsp.sendError(HttpServletResponse.SC_METHOD_NOT_ALLOWED);
+			return;
+		}
+		ChoiceSourceStatistics.reset();
+		rsp.sendRedirect(".");
+	}
+}
@@ -0,0 +1,173 @@
+/*
+ *Copyright (c) 2013 Costco, Vimil Saju
+ *See the file license.txt for copying permission.
+ */
+
+package com.cwctravel.hudson.plugins.extended_choice_parameter;
+
+import hudson.Extension;
+import hudson.model.Action;
+import hudson.model.AbstractProject;
+import hudson.model.Item;
+import hudson.model.ParameterDefinition;
+import hudson.model.ParametersDefinitionProperty;
+import hudson.model.TransientProjectActionFactory;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.servlet.http.HttpServletResponse;
+
+import net.sf.json.JSON;
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+
+import org.apache.commons.lang.StringUtils;
+import org.kohsuke.stapler.StaplerRequest;
+import org.kohsuke.stapler.StaplerResponse;
+
+/**
+ * Exposes the extended choice parameters of a job under <code>job/NAME/extendedChoices/</code>.
+ * <ul>
+ * <li><code>extendedChoices/</code> returns the choices of all (or <code>?names=a,b</code>) parameters</li>
+ * <li><code>extendedChoices/PARAM/choices</code> returns the choices of a single parameter</li>
+ * <li><code>extendedChoices/PARAM/history</code> returns the recent {@link ChoiceChange}s of a single parameter</li>
+ * </ul>
+ * All of them read the cached {@link ChoiceSnapshot} and honour <code>If-None-Match</code>. Since they return what
+ * the build form shows and may query the backends, they require {@link Item#BUILD} on the job.
+ */
+public class ExtendedChoiceParametersAction implements Action {
+	public static final String URL_NAME = "extendedChoices";
+
+	private final AbstractProject<?, ?> project;
+
+	public ExtendedChoiceParametersAction(AbstractProject<?, ?> project) {
+		this.project = project;
+	}
+
+	public AbstractProject<?, ?> getProject() {
+		return project;
+	}
+
+	public String getIconFileName() {
+		return null;
+	}
+
+	public String getDisplayName() {
+		return null;
+	}
+
+	public String getUrlName() {
+		return URL_NAME;
+	}
+
+	public List<ExtendedChoiceParameterDefinition> getParameterDefinitions() {
+		return parameterDefinitions(project);
+	}
+
+	public Object getDynamic(String name, StaplerRequest req, StaplerResponse rsp) {
+		project.checkPermission(Item.BUILD);
+		for(ExtendedChoiceParameterDefinition parameterDefinition: getParameterDefinitions()) {
+			if(parameterDefinition.getName().equals(name)) {
+				return parameterDefinition;
+			}
+		}
+		return null;
+	}
+
+	public void doIndex(StaplerRequest req, StaplerResponse rsp) throws IOException {
+		project.checkPermission(Item.BUILD);
+
+		Set<String> names = null;
+		String namesParameter = req.getParameter("names");
+		if(!StringUtils.isBlank(namesParameter)) {
+			names = new HashSet<String>();
+			for(String name: StringUtils.split(namesParameter, ',')) {
+				names.add(StringUtils.trim(name));
+			}
+		}
+
+		JSONArray parameters = new JSONArray();
+		StringBuilder eTags = new StringBuilder();
+		for(ExtendedChoiceParameterDefinition parameterDefinition: getParameterDefinitions()) {
+			if(names == null || names.contains(parameterDefinition.getName())) {
+				ChoiceSnapshot snapshot = parameterDefinition.getChoiceSnapshot();
+				parameters.add(snapshot.toJSON(parameterDefinition.getName(), parameterDefinition.getType()));
+				eTags.append(parameterDefinition.getName()).append('=').append(snapshot.getETag()).append(';');
+			}
+		}
+
+		JSONObject result = new JSONObject();
+		result.put("parameters", parameters);
+
+		String eTag = "\"" + Long.toHexString(ChoiceSnapshot.hash(0xcbf29ce484222325L, eTags.toString())) + "\"";
+		writeJSON(req, rsp, eTag, result);
+	}
+
+	/**
+	 * Writes <code>json</code> tagged with <code>eTag</code>, or a bare 304 when the client already has it.
+	 */
+	static void writeJSON(StaplerRequest req, StaplerResponse rsp, String eTag, JSON json) throws IOException {
+		rsp.setHeader("ETag", eTag);
+		rsp.setHeader("Cache-Control", "private, no-cache");
+		if(matchesETag(req.getHeader("If-None-Match"), eTag)) {
+			rsp.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+			return;
+		}
+		rsp.setContentType("application/json;charset=UTF-8");
+		PrintWriter writer = rsp.getWriter();
+		writer.print(json.toString());
+		writer.flush();
+	}
+
+	static boolean matchesETag(String ifNoneMatch, String eTag) {
+		if(StringUtils.isBlank(ifNoneMatch)) {
+			return false;
+		}
+		for(String candidate: StringUtils.split(ifNoneMatch, ',')) {
+			candidate = StringUtils.trim(candidate);
+			if(candidate.startsWith("W/")) {
+				candidate = candidate.substring(2);
+			}
+			if(candidate.equals("*") || candidate.equals(eTag)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	static List<ExtendedChoiceParameterDefinition> parameterDefinitions(AbstractProject<?, ?> project) {
+		ParametersDefinitionProperty property = project.getProperty(ParametersDefinitionProperty.class);
+		if(property == null) {
+			return Collections.emptyList();
+		}
+		List<ExtendedChoiceParameterDefinition> result = new ArrayList<ExtendedChoiceParameterDefinition>();
+		for(ParameterDefinition parameterDefinition: property.getParameterDefinitions()) {
+			if(parameterDefinition instanceof ExtendedChoiceParameterDefinition) {
+				result.add((ExtendedChoiceParameterDefinition) parameterDefinition);
+			}
+		}
+		return result;
+	}
+
+	@Extension
+	public static class FactoryImpl extends TransientProjectActionFactory {
+		@Override
+		public Collection<? extends Action> createFor(@SuppressWarnings("rawtypes") AbstractProject target) {
+			AbstractProject<?, ?> project = target;
+			List<ExtendedChoiceParameterDefinition> parameterDefinitions = parameterDefinitions(project);
+			// the actions are rebuilt whenever the job is loaded or its configuration saved
+			ChoiceState.bind(project, parameterDefinitions);
+			if(parameterDefinitions.isEmpty()) {
+				return Collections.emptyList();
+			}
+			return Collections.singletonList(new ExtendedChoiceParametersAction(project));
+		}
+	}
+}
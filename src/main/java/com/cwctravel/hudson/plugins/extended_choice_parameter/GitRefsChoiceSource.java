@@ -0,0 +1,239 @@
+/*
+ *Copyright (c) 2013 Costco, Vimil Saju
+ *See the file license.txt for copying permission.
+ */
+
+package com.cwctravel.hudson.plugins.extended_choice_parameter;
+
+import hudson.Extension;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.regex.Pattern;
+
+import org.apache.commons.lang.StringUtils;
+
+/**
+ * Lists the branches and tags of a local bare or mirror repository without forking <code>git</code>. The
+ * <code>packed-refs</code> file is read and merged with the loose refs under <code>refs/</code>; the result is kept in
+ * memory until the modification time of <code>packed-refs</code> or of one of the ref directories changes.
+ * <p>
+ * The ref filter is matched against the full ref name. It is a glob where <code>*</code> stays within one path
+ * segment and <code>**</code> spans segments (e.g. <code>refs/heads/release/*</code>), or a regular expression when
+ * prefixed with <code>regex:</code>. Branches and tags are listed under their short names, or as
+ * <code>heads/NAME</code> and <code>tags/NAME</code> when a branch and a tag of the same name both match.
+ */
+@Extension(ordinal = 350)
+public class GitRefsChoiceSource extends ChoiceSource {
+	private static final String DEFAULT_REF_FILTER = "refs/heads/**,refs/tags/**";
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	private static final ConcurrentMap<String, RefIndex> INDEXES = new ConcurrentHashMap<String, RefIndex>();
+	/**
+	 * Sorted ref names of a repository, together with the timestamps they were read at.
+	 */
+	private static final class RefIndex {
+		private final Map<String, Long> timestamps;
+
+		private final String[] refNames;
+
+		RefIndex(Map<String, Long> timestamps, String[] refNames) {
+			this.timestamps = timestamps;
+			this.refNames = refNames;
+		}
+	}
+
+	@Override
+	public boolean isApplicable(ExtendedChoiceParameterConfig config, ChoiceSpec spec) {
+		return !spec.isDefaultValue() && !StringUtils.isBlank(config.getGitRepository());
+	}
+
+	@Override
+	public ChoiceIterator open(ExtendedChoiceParameterConfig config, ChoiceSpec spec, final int limit) throws IOException {
+		final String[] refNames = getRefIndex(gitDirectory(config.getGitRepository())).refNames;
+		String refFilter = config.getGitRefFilter();
+		final Pattern pattern = ChoicePatterns.compilePathGlobs(StringUtils.isBlank(refFilter) ? DEFAULT_REF_FILTER
+				: refFilter.trim());
+
+		return new ChoiceIterator() {
+			private int position;
+
+			private int count;
+
+			public String next() {
+				while(position < refNames.length && count < limit) {
+					String refName = refNames[position++];
+					if(pattern.matcher(refName).matches()) {
+						count++;
+						return shortName(refName, refNames, pattern);
+					}
+				}
+				return null;
+			}
+
+			public void close() {
+			}
+		};
+	}
+
+	@Override
+	public int getCostHint(ExtendedChoiceParameterConfig config, ChoiceSpec spec) {
+		return COST_IO;
+	}
+
+	@Override
+	public String getCacheKey(ExtendedChoiceParameterConfig config, ChoiceSpec spec) {
+		return config.getGitRepository() + '#' + config.getGitRefFilter();
+	}
+
+	private static File gitDirectory(String repository) throws FileNotFoundException {
+		File directory = new File(repository);
+		File dotGit = new File(directory, ".git");
+		if(dotGit.isDirectory()) {
+			directory = dotGit;
+		}
+		if(!new File(directory, "refs").isDirectory()) {
+			throw new FileNotFoundException(repository + " is not a git repository");
+		}
+		return directory;
+	}
+
+	private static RefIndex getRefIndex(File gitDirectory) throws IOException {
+		String key = gitDirectory.getCanonicalPath();
+		RefIndex refIndex = INDEXES.get(key);
+		if(refIndex == null || !isCurrent(refIndex)) {
+			Map<String, Long> timestamps = timestamps(gitDirectory);
+			TreeSet<String> refNames = new TreeSet<String>();
+			readPackedRefs(new File(gitDirectory, "packed-refs"), refNames);
+			readLooseRefs(new File(gitDirectory, "refs"), "refs/", refNames);
+			refIndex = new RefIndex(timestamps, refNames.toArray(new String[refNames.size()]));
+			INDEXES.put(key, refIndex);
+		}
+		return refIndex;
+	}
+
+	/**
+	 * Checks the files and directories the index was read from without listing any directory. A ref directory that
+	 * is created or removed changes the modification time of its parent, which is among them.
+	 */
+	private static boolean isCurrent(RefIndex refIndex) {
+		for(Map.Entry<String, Long> entry: refIndex.timestamps.entrySet()) {
+			if(timestamp(new File(entry.getKey())) != entry.getValue().longValue()) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Modification times of <code>packed-refs</code> and of every directory below <code>refs/</code>, which change
+	 * whenever a ref is packed, created or deleted.
+	 */
+	private static Map<String, Long> timestamps(File gitDirectory) {
+		Map<String, Long> timestamps = new TreeMap<String, Long>();
+		File packedRefs = new File(gitDirectory, "packed-refs");
+		timestamps.put(packedRefs.getPath(), timestamp(packedRefs));
+
+		List<File> directories = new ArrayList<File>();
+		directories.add(new File(gitDirectory, "refs"));
+		while(!directories.isEmpty()) {
+			File directory = directories.remove(directories.size() - 1);
+			timestamps.put(directory.getPath(), timestamp(directory));
+			File[] children = directory.listFiles();
+			if(children != null) {
+				for(File child: children) {
+					if(child.isDirectory()) {
+						directories.add(child);
+					}
+				}
+			}
+		}
+		return timestamps;
+	}
+
+	// packed-refs can be rewritten within the granularity of the modification time, but then its length differs
+	private static long timestamp(File file) {
+		return file.isDirectory() ? file.lastModified() : file.lastModified() ^ (file.length() << 32);
+	}
+
+	private static void readPackedRefs(File packedRefs, TreeSet<String> refNames) throws IOException {
+		if(!packedRefs.isFile()) {
+			return;
+		}
+
+		BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(packedRefs), UTF_8));
+		try {
+			String line;
+			while((line = reader.readLine()) != null) {
+				addPackedRef(line, refNames);
+			}
+		}
+		finally {
+			reader.close();
+		}
+	}
+
+	// lines are "<object id> <ref name>", except for the "# pack-refs" header and "^<object id>" peeled tag lines
+	private static void addPackedRef(String line, TreeSet<String> refNames) {
+		if(line.length() == 0 || line.charAt(0) == '#' || line.charAt(0) == '^') {
+			return;
+		}
+		int space = line.indexOf(' ');
+		if(space >= 0) {
+			refNames.add(line.substring(space + 1));
+		}
+	}
+
+	private static void readLooseRefs(File directory, String prefix, TreeSet<String> refNames) {
+		File[] children = directory.listFiles();
+		if(children == null) {
+			return;
+		}
+		for(File child: children) {
+			if(child.isDirectory()) {
+				readLooseRefs(child, prefix + child.getName() + "/", refNames);
+			}
+			else if(!child.getName().endsWith(".lock")) {
+				refNames.add(prefix + child.getName());
+			}
+		}
+	}
+
+	/**
+	 * Strips <code>refs/heads/</code> or <code>refs/tags/</code>, but keeps <code>heads/</code> or <code>tags/</code>
+	 * if a tag or branch of the same name is listed as well, so that both stay distinct and unambiguous to git.
+	 */
+	private static String shortName(String refName, String[] refNames, Pattern pattern) {
+		String name;
+		String other;
+		if(refName.startsWith("refs/heads/")) {
+			name = refName.substring("refs/heads/".length());
+			other = "refs/tags/" + name;
+		}
+		else if(refName.startsWith("refs/tags/")) {
+			name = refName.substring("refs/tags/".length());
+			other = "refs/heads/" + name;
+		}
+		else {
+			return refName;
+		}
+		if(Arrays.binarySearch(refNames, other) >= 0 && pattern.matcher(other).matches()) {
+			return refName.substring("refs/".length());
+		}
+		return name;
+	}
+}
@@ -0,0 +1,233 @@
+/*
+ *Copyright (c) 2013 Costco, Vimil Saju
+ *See the file license.txt for copying permission.
+ */
+
+package com.cwctravel.hudson.plugins.extended_choice_parameter;
+
+import hudson.Extension;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.regex.Pattern;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParser;
+import javax.xml.parsers.SAXParserFactory;
+
+import org.apache.commons.lang.StringUtils;
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * Lists the versions of an artifact from its <code>maven-metadata.xml</code>, newest first. The location is either
+ * the metadata file itself or the artifact directory containing it, as a URL or a local path.
+ * <p>
+ * The versions are kept in a sorted, de-duplicated index per location. Local files are reread only when their
+ * modification time changes and remote files are fetched with <code>If-None-Match</code> and
+ * <code>If-Modified-Since</code>, so an unchanged repository costs a 304. The index can be narrowed with a version
+ * filter (a glob, or a regular expression prefixed with <code>regex:</code>) and to the newest N versions.
+ */
+@Extension(ordinal = 340)
+public class MavenMetadataChoiceSource extends ChoiceSource {
+	private static final String METADATA_FILE_NAME = "maven-metadata.xml";
+
+	private static final int CONNECT_TIMEOUT = 10000;
+
+	private static final int READ_TIMEOUT = 30000;
+
+	private static final ConcurrentMap<String, VersionIndex> INDEXES = new ConcurrentHashMap<String, VersionIndex>();
+
+	/**
+	 * Versions sorted newest first, together with the validators they were fetched with.
+	 */
+	private static final class VersionIndex {
+		private final String[] versions;
+
+		private final long lastModified;
+
+		private final String eTag;
+
+		VersionIndex(String[] versions, long lastModified, String eTag) {
+			this.versions = versions;
+			this.lastModified = lastModified;
+			this.eTag = eTag;
+		}
+	}
+
+	@Override
+	public boolean isApplicable(ExtendedChoiceParameterConfig config, ChoiceSpec spec) {
+		return !spec.isDefaultValue() && !StringUtils.isBlank(config.getMavenMetadataURL());
+	}
+
+	@Override
+	public ChoiceIterator open(ExtendedChoiceParameterConfig config, ChoiceSpec spec, int limit) throws IOException {
+		return open(config.getMavenMetadataURL(), config.getMavenVersionFilter(), config.getMavenNewestCount(), limit);
+	}
+
+	static ChoiceIterator open(String location, String versionFilter, int newestCount, int limit) throws IOException {
+		final String[] versions = getVersionIndex(metadataLocation(location)).versions;
+
+		final Pattern pattern = StringUtils.isBlank(versionFilter) ? null : ChoicePatterns.compileGlobs(versionFilter
+				.trim());
+
+		final int maxCount = newestCount > 0 ? Math.min(limit, newestCount) : limit;
+
+		return new ChoiceIterator() {
+			private int position;
+
+			private int count;
+
+			public String next() {
+				while(position < versions.length && count < maxCount) {
+					String version = versions[position++];
+					if(pattern == null || pattern.matcher(version).matches()) {
+						count++;
+						return version;
+					}
+				}
+				return null;
+			}
+
+			public void close() {
+			}
+		};
+	}
+
+	@Override
+	public int getCostHint(ExtendedChoiceParameterConfig config, ChoiceSpec spec) {
+		return isRemote(config.getMavenMetadataURL()) ? COST_REMOTE : COST_IO;
+	}
+
+	@Override
+	public String getCacheKey(ExtendedChoiceParameterConfig config, ChoiceSpec spec) {
+		return config.getMavenMetadataURL() + '#' + config.getMavenVersionFilter() + '#' + config.getMavenNewestCount();
+	}
+
+	private static boolean isRemote(String location) {
+		return location.startsWith("http://") || location.startsWith("https://");
+	}
+
+	private static String metadataLocation(String location) {
+		location = location.trim();
+		if(location.endsWith(".xml")) {
+			return location;
+		}
+		return StringUtils.removeEnd(location, "/") + "/" + METADATA_FILE_NAME;
+	}
+
+	private static VersionIndex getVersionIndex(String location) throws IOException {
+		VersionIndex versionIndex = INDEXES.get(location);
+		if(isRemote(location) || location.startsWith("file:")) {
+			versionIndex = fetch(new URL(location), versionIndex);
+		}
+		else {
+			File file = new File(location);
+			if(versionIndex == null || versionIndex.lastModified != file.lastModified()) {
+				long lastModified = file.lastModified();
+				InputStream inputStream = new FileInputStream(file);
+				try {
+					versionIndex = new VersionIndex(parse(inputStream), lastModified, null);
+				}
+				finally {
+					inputStream.close();
+				}
+			}
+		}
+		INDEXES.put(location, versionIndex);
+		return versionIndex;
+	}
+
+	private static VersionIndex fetch(URL url, VersionIndex cached) throws IOException {
+		URLConnection connection = url.openConnection();
+		connection.setConnectTimeout(CONNECT_TIMEOUT);
+		connection.setReadTimeout(READ_TIMEOUT);
+		if(cached != null) {
+			if(cached.eTag != null) {
+				connection.setRequestProperty("If-None-Match", cached.eTag);
+			}
+			if(cached.lastModified > 0) {
+				connection.setIfModifiedSince(cached.lastModified);
+			}
+		}
+
+		if(connection instanceof HttpURLConnection) {
+			HttpURLConnection httpConnection = (HttpURLConnection) connection;
+			if(cached != null && httpConnection.getResponseCode() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+				httpConnection.disconnect();
+				return cached;
+			}
+		}
+		else if(cached != null && cached.lastModified > 0 && cached.lastModified == connection.getLastModified()) {
+			// file: URLs ignore If-Modified-Since
+			return cached;
+		}
+
+		InputStream inputStream = connection.getInputStream();
+		try {
+			return new VersionIndex(parse(inputStream), connection.getLastModified(), connection.getHeaderField("ETag"));
+		}
+		finally {
+			inputStream.close();
+		}
+	}
+
+	/**
+	 * Reads the <code>versioning/versions/version</code> elements, sorted newest first and without duplicates.
+	 * Equivalent versions such as <code>1.0</code> and <code>1.0.0</code> are distinct artifacts and are both kept.
+	 */
+	private static String[] parse(InputStream inputStream) throws IOException {
+		final TreeSet<String> versions = new TreeSet<String>(VersionComparator.INSTANCE);
+		try {
+			SAXParserFactory factory = SAXParserFactory.newInstance();
+			factory.setNamespaceAware(false);
+			factory.setFeature("http://xml.org/sax/features/external-general-entities", false);
+			factory.setFeature("http://xml.org/sax/features/external-parameter-entities", false);
+			SAXParser parser = factory.newSAXParser();
+			parser.parse(inputStream, new DefaultHandler() {
+				private final StringBuilder path = new StringBuilder();
+
+				private final StringBuilder text = new StringBuilder();
+
+				@Override
+				public void startElement(String uri, String localName, String qName, Attributes attributes) {
+					path.append('/').append(qName);
+					text.setLength(0);
+				}
+
+				@Override
+				public void characters(char[] ch, int start, int length) {
+					text.append(ch, start, length);
+				}
+
+				@Override
+				public void endElement(String uri, String localName, String qName) {
+					if(path.toString().endsWith("/versioning/versions/version")) {
+						String version = text.toString().trim();
+						if(version.length() > 0) {
+							versions.add(version);
+						}
+					}
+					path.setLength(path.length() - qName.length() - 1);
+					text.setLength(0);
+				}
+			});
+		}
+		catch(SAXException e) {
+			throw new IOException(e);
+		}
+		catch(ParserConfigurationException e) {
+			throw new IOException(e);
+		}
+		return versions.descendingSet().toArray(new String[versions.size()]);
+	}
+}
@@ -0,0 +1,264 @@
+/*
+ *Copyright (c) 2013 Costco, Vimil Saju
+ *See the file license.txt for copying permission.
+ */
+
+package com.cwctravel.hudson.plugins.extended_choice_parameter;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * Binary sidecar of a multi-level tab delimited file, written next to it as <code>FILE.ecpindex</code> after the
+ * file was parsed, so that the {@link MultiLevelChoiceTree} survives restarts without parsing the file again.
+ * <p>
+ * The index holds the length, modification time and CRC-32 of the file it was built from, the column names of the
+ * levels, the placeholders, the label dictionary and the node table. It is read with a plain stream rather than
+ * memory mapped, since on Windows a mapping keeps the file locked until it is garbage collected and the index could
+ * not be rewritten. When length and modification time still match, the index is used as is; when only the
+ * modification time changed (the file was copied or touched) the CRC-32 of the file decides. Every node is checked
+ * against the tree's invariants. Anything else, including a truncated, corrupt or foreign index, falls back to
+ * parsing the file and rewriting the index.
+ * <p>
+ * Sidecars can be turned off with
+ * <code>-Dcom.cwctravel.hudson.plugins.extended_choice_parameter.MultiLevelChoiceIndex.disabled=true</code>, e.g.
+ * when the files live on a read-only share.
+ */
+final class MultiLevelChoiceIndex {
+	private static final Logger LOG = Logger.getLogger(MultiLevelChoiceIndex.class.getName());
+
+	private static final boolean DISABLED = Boolean.getBoolean(MultiLevelChoiceIndex.class.getName() + ".disabled");
+
+	private static final String SUFFIX = ".ecpindex";
+
+	private static final int MAGIC = 0x45435049; // "ECPI"
+
+	private static final int VERSION = 1;
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	private MultiLevelChoiceIndex() {
+	}
+
+	static File sidecarOf(File file) {
+		return new File(file.getPath() + SUFFIX);
+	}
+
+	/**
+	 * Returns the tree of <code>file</code>, from its sidecar if that is still valid, otherwise by parsing the file
+	 * and writing a new sidecar.
+	 */
+	static MultiLevelChoiceTree load(File file, MultiLevelChoiceLevels levels) throws Exception {
+		if(DISABLED) {
+			return MultiLevelChoiceTree.parse(file, levels);
+		}
+
+		File sidecar = sidecarOf(file);
+		long length = file.length();
+		long lastModified = file.lastModified();
+		if(sidecar.isFile()) {
+			try {
+				MultiLevelChoiceTree tree = read(sidecar, file, length, lastModified, levels);
+				if(tree != null) {
+					return tree;
+				}
+			}
+			catch(IOException e) {
+				LOG.log(Level.FINE, "Ignoring unreadable index " + sidecar, e);
+			}
+			catch(RuntimeException e) {
+				LOG.log(Level.FINE, "Ignoring unreadable index " + sidecar, e);
+			}
+		}
+
+		long crc = checksum(file);
+		MultiLevelChoiceTree tree = MultiLevelChoiceTree.parse(file, levels);
+		// a truncated tree is not indexed, so that it is read in full once the limits are raised
+		if(!tree.isTruncated()) {
+			try {
+				write(sidecar, tree, length, lastModified, crc, levels);
+			}
+			catch(IOException e) {
+				LOG.log(Level.FINE, "Could not write index " + sidecar, e);
+			}
+		}
+		return tree;
+	}
+
+	private static MultiLevelChoiceTree read(File sidecar, File file, long length, long lastModified,
+			MultiLevelChoiceLevels levels) throws IOException {
+		long size = sidecar.length();
+		DataInputStream inputStream = new DataInputStream(new BufferedInputStream(new FileInputStream(sidecar), 65536));
+		try {
+			if(inputStream.readInt() != MAGIC || inputStream.readInt() != VERSION) {
+				return null;
+			}
+			long indexedLength = inputStream.readLong();
+			long indexedLastModified = inputStream.readLong();
+			long indexedCrc = inputStream.readLong();
+			if(indexedLength != length) {
+				return null;
+			}
+
+			int levelCount = inputStream.readInt();
+			if(levelCount != levels.size()) {
+				return null;
+			}
+			for(int level = 0; level < levelCount; level++) {
+				if(!readString(inputStream, size).equals(levels.getColumnName(level))) {
+					return null;
+				}
+			}
+
+			if(indexedLastModified != lastModified && indexedCrc != checksum(file)) {
+				return null;
+			}
+
+			String[] placeholders = readStrings(inputStream, size);
+			String[] labels = readStrings(inputStream, size);
+			int nodeCount = readCount(inputStream, size, 12);
+			int[] parents = readInts(inputStream, nodeCount);
+			int[] labelIndices = readInts(inputStream, nodeCount);
+			int[] nodeLevels = readInts(inputStream, nodeCount);
+			validate(placeholders.length, labels.length, parents, labelIndices, nodeLevels);
+			return new MultiLevelChoiceTree(placeholders, labels, parents, labelIndices, nodeLevels);
+		}
+		finally {
+			inputStream.close();
+		}
+	}
+
+	/**
+	 * Checks that every node refers to a label that exists and to a parent that precedes it on the level above, as
+	 * {@link MultiLevelChoiceTree#parse} builds them.
+	 */
+	private static void validate(int levelCount, int labelCount, int[] parents, int[] labelIndices, int[] levels)
+			throws IOException {
+		for(int node = 0; node < parents.length; node++) {
+			int parent = parents[node];
+			int level = levels[node];
+			if(parent < -1 || parent >= node || labelIndices[node] < 0 || labelIndices[node] >= labelCount || level < 0
+					|| level >= levelCount || level != (parent < 0 ? 0 : levels[parent] + 1)) {
+				throw new IOException("Corrupt node " + node);
+			}
+		}
+	}
+
+	private static void write(File sidecar, MultiLevelChoiceTree tree, long length, long lastModified, long crc,
+			MultiLevelChoiceLevels levels) throws IOException {
+		// write to a temporary file first, so concurrent readers never see a partial index
+		File temporary = File.createTempFile(sidecar.getName(), ".tmp", sidecar.getAbsoluteFile().getParentFile());
+		boolean written = false;
+		try {
+			DataOutputStream outputStream = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(
+					temporary), 65536));
+			try {
+				outputStream.writeInt(MAGIC);
+				outputStream.writeInt(VERSION);
+				outputStream.writeLong(length);
+				outputStream.writeLong(lastModified);
+				outputStream.writeLong(crc);
+				outputStream.writeInt(levels.size());
+				for(int level = 0; level < levels.size(); level++) {
+					writeString(outputStream, levels.getColumnName(level));
+				}
+				writeStrings(outputStream, tree.getPlaceholders());
+				writeStrings(outputStream, tree.getLabels());
+				outputStream.writeInt(tree.getNodeCount());
+				writeInts(outputStream, tree.getParents());
+				writeInts(outputStream, tree.getLabelIndices());
+				writeInts(outputStream, tree.getLevels());
+			}
+			finally {
+				outputStream.close();
+			}
+			sidecar.delete();
+			written = temporary.renameTo(sidecar);
+		}
+		finally {
+			if(!written) {
+				temporary.delete();
+			}
+		}
+	}
+
+	private static long checksum(File file) throws IOException {
+		CRC32 crc = new CRC32();
+		InputStream inputStream = new FileInputStream(file);
+		try {
+			byte[] buffer = new byte[65536];
+			int read;
+			while((read = inputStream.read(buffer)) > 0) {
+				crc.update(buffer, 0, read);
+			}
+		}
+		finally {
+			inputStream.close();
+		}
+		return crc.getValue();
+	}
+
+	private static String readString(DataInputStream inputStream, long size) throws IOException {
+		byte[] bytes = new byte[readCount(inputStream, size, 1)];
+		inputStream.readFully(bytes);
+		return new String(bytes, UTF_8);
+	}
+
+	private static String[] readStrings(DataInputStream inputStream, long size) throws IOException {
+		String[] strings = new String[readCount(inputStream, size, 4)];
+		for(int i = 0; i < strings.length; i++) {
+			strings[i] = readString(inputStream, size);
+		}
+		return strings;
+	}
+
+	/**
+	 * Reads the number of elements that follow, checking that they can fit in an index of <code>size</code> bytes
+	 * before anything is allocated for them.
+	 */
+	private static int readCount(DataInputStream inputStream, long size, int minimumSize) throws IOException {
+		int count = inputStream.readInt();
+		if(count < 0 || (long) count * minimumSize > size) {
+			throw new IOException("Corrupt index");
+		}
+		return count;
+	}
+
+	private static int[] readInts(DataInputStream inputStream, int count) throws IOException {
+		int[] ints = new int[count];
+		for(int i = 0; i < count; i++) {
+			ints[i] = inputStream.readInt();
+		}
+		return ints;
+	}
+
+	private static void writeString(DataOutputStream outputStream, String string) throws IOException {
+		byte[] bytes = string.getBytes(UTF_8);
+		outputStream.writeInt(bytes.length);
+		outputStream.write(bytes);
+	}
+
+	private static void writeStrings(DataOutputStream outputStream, String[] strings) throws IOException {
+		outputStream.writeInt(strings.length);
+		for(String string: strings) {
+			writeString(outputStream, string);
+		}
+	}
+
+	private static void writeInts(DataOutputStream outputStream, int[] ints) throws IOException {
+		for(int value: ints) {
+			outputStream.writeInt(value);
+		}
+	}
+}
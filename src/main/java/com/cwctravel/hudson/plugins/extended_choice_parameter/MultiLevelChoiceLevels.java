@@ -0,0 +1,71 @@
+/*
+ *Copyright (c) 2013 Costco, Vimil Saju
+ *See the file license.txt for copying permission.
+ */
+
+package com.cwctravel.hudson.plugins.extended_choice_parameter;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The levels of a multi-level parameter as compiled from its comma separated list of column names: for every level
+ * the column name, the label shown to users (lower case, underscores replaced by spaces) and the "Select a ..."
+ * placeholder of its dropdowns. It is compiled once with every {@link ExtendedChoiceParameterConfig}, so rendering
+ * and submitting do not split and reformat the column names again.
+ */
+public final class MultiLevelChoiceLevels {
+	private final String[] columnNames;
+
+	private final String[] labels;
+
+	private final String[] placeholders;
+
+	private MultiLevelChoiceLevels(String[] columnNames) {
+		this.columnNames = columnNames;
+		this.labels = new String[columnNames.length];
+		this.placeholders = new String[columnNames.length];
+		for(int i = 0; i < columnNames.length; i++) {
+			labels[i] = columnNames[i].toLowerCase().replace('_', ' ');
+			placeholders[i] = "Select a " + labels[i] + "...";
+		}
+	}
+
+	public static MultiLevelChoiceLevels compile(String columnNames) {
+		List<String> names = ChoiceDelimiter.DEFAULT.split(columnNames);
+		return new MultiLevelChoiceLevels(names.toArray(new String[names.size()]));
+	}
+
+	public int size() {
+		return columnNames.length;
+	}
+
+	public String getColumnName(int level) {
+		return columnNames[level];
+	}
+
+	public String getLabel(int level) {
+		return labels[level];
+	}
+
+	public String getPlaceholder(int level) {
+		return placeholders[level];
+	}
+
+	/**
+	 * Looks up the column of every level in the header line of a file, -1 for a level whose column is missing.
+	 */
+	int[] columnIndices(String[] headerColumns) {
+		Map<String, Integer> columnsByName = new HashMap<String, Integer>(headerColumns.length * 2);
+		for(int i = headerColumns.length - 1; i >= 0; i--) {
+			columnsByName.put(headerColumns[i], i);
+		}
+		int[] columnIndices = new int[columnNames.length];
+		for(int level = 0; level < columnNames.length; level++) {
+			Integer column = columnsByName.get(columnNames[level]);
+			columnIndices[level] = column == null ? -1 : column;
+		}
+		return columnIndices;
+	}
+}
@@ -0,0 +1,85 @@
+/*
+ *Copyright (c) 2013 Costco, Vimil Saju
+ *See the file license.txt for copying permission.
+ */
+
+package com.cwctravel.hudson.plugins.extended_choice_parameter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.lang.StringUtils;
+import org.kohsuke.stapler.StaplerRequest;
+import org.kohsuke.stapler.StaplerResponse;
+
+/**
+ * A parsed {@link MultiLevelChoiceTree} together with its serialized and gzip compressed wire format, cached per
+ * source file so that repeated page views neither reparse the file nor recompress the payload.
+ */
+final class MultiLevelChoicePayload {
+	private final String sourceKey;
+
+	private final MultiLevelChoiceTree tree;
+
+	private final byte[] json;
+
+	private final byte[] gzippedJson;
+
+	private final String eTag;
+
+	MultiLevelChoicePayload(String sourceKey, MultiLevelChoiceTree tree) throws IOException {
+		this.sourceKey = sourceKey;
+		this.tree = tree;
+		this.json = tree.toJSON().toString().getBytes("UTF-8");
+
+		ByteArrayOutputStream gzipped = new ByteArrayOutputStream(json.length / 4 + 64);
+		GZIPOutputStream gzipOutputStream = new GZIPOutputStream(gzipped);
+		gzipOutputStream.write(json);
+		gzipOutputStream.close();
+		this.gzippedJson = gzipped.toByteArray();
+
+		long hash = 0xcbf29ce484222325L;
+		for(byte b: json) {
+			hash = (hash ^ (b & 0xff)) * 0x100000001b3L;
+		}
+		this.eTag = "\"" + Long.toHexString(hash) + "\"";
+	}
+
+	String getSourceKey() {
+		return sourceKey;
+	}
+
+	MultiLevelChoiceTree getTree() {
+		return tree;
+	}
+
+	long getResidentSize() {
+		return json.length + gzippedJson.length + tree.getResidentSize();
+	}
+
+	void write(StaplerRequest req, StaplerResponse rsp) throws IOException {
+		rsp.setHeader("ETag", eTag);
+		rsp.setHeader("Cache-Control", "private, no-cache");
+		rsp.setHeader("Vary", "Accept-Encoding");
+		if(ExtendedChoiceParametersAction.matchesETag(req.getHeader("If-None-Match"), eTag)) {
+			rsp.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+			return;
+		}
+
+		rsp.setContentType("application/json;charset=UTF-8");
+		byte[] body = json;
+		String acceptEncoding = req.getHeader("Accept-Encoding");
+		if(acceptEncoding != null && StringUtils.contains(acceptEncoding, "gzip")) {
+			rsp.setHeader("Content-Encoding", "gzip");
+			body = gzippedJson;
+		}
+		rsp.setContentLength(body.length);
+		OutputStream outputStream = rsp.getOutputStream();
+		outputStream.write(body);
+		outputStream.flush();
+	}
+}
@@ -0,0 +1,259 @@
+/*
+ *Copyright (c) 2013 Costco, Vimil Saju
+ *Copyright (c) 2013 John DiMatteo
+ *See the file license.txt for copying permission.
+ */
+
+package com.cwctravel.hudson.plugins.extended_choice_parameter;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+import au.com.bytecode.opencsv.CSVReader;
+
+/**
+ * Compact form of a multi-level tab delimited file: every distinct path prefix is a node that points to its parent
+ * node and to an entry of a shared label dictionary. Every node follows its parent, and the children of a node keep
+ * the order in which they first appear in the file.
+ * <p>
+ * The file is streamed row by row, so only the tree is held in memory, not the rows. The tree is limited to
+ * <code>maxNodes</code> nodes (5000000 by default) and <code>maxLabelBytes</code> of distinct labels (128 MB by
+ * default), system properties prefixed with
+ * <code>com.cwctravel.hudson.plugins.extended_choice_parameter.MultiLevelChoiceTree.</code>. Rows that would exceed
+ * them are left out, which is recorded with the {@link ChoiceBudget} truncations and shown on the build page.
+ * <p>
+ * {@link MultiLevelChoiceIndex} keeps a binary copy of the tree next to the file, so it is only parsed again when the
+ * file changes.
+ */
+public final class MultiLevelChoiceTree {
+	private static final int MAX_NODES = Integer.getInteger(MultiLevelChoiceTree.class.getName() + ".maxNodes", 5000000);
+
+	private static final long MAX_LABEL_BYTES = Long.getLong(MultiLevelChoiceTree.class.getName() + ".maxLabelBytes",
+			128L * 1024 * 1024);
+
+	private final String[] placeholders;
+
+	private final String[] labels;
+
+	private final int[] parents;
+
+	private final int[] labelIndices;
+
+	private final int[] levels;
+
+	// why rows were left out, or null if the tree is complete
+	private String truncation;
+
+	MultiLevelChoiceTree(String[] placeholders, String[] labels, int[] parents, int[] labelIndices, int[] levels) {
+		this.placeholders = placeholders;
+		this.labels = labels;
+		this.parents = parents;
+		this.labelIndices = labelIndices;
+		this.levels = levels;
+	}
+
+	public static MultiLevelChoiceTree parse(File file, MultiLevelChoiceLevels levels) throws Exception {
+		CSVReader reader = new CSVReader(new FileReader(file), '\t');
+		try {
+			String[] header = reader.readNext();
+			String[] line = header == null ? null : reader.readNext();
+			if(line == null) {
+				throw new Exception("Multi level tab delimited file must have at least 2 "
+						+ "lines (one for the header, and one or more for the data)");
+			}
+
+			// levels whose column is missing from the file are left out
+			int[] levelColumns = levels.columnIndices(header);
+			List<Integer> columnIndices = new ArrayList<Integer>();
+			List<String> placeholderList = new ArrayList<String>();
+			for(int level = 0; level < levelColumns.length; ++level) {
+				if(levelColumns[level] >= 0) {
+					columnIndices.add(levelColumns[level]);
+					placeholderList.add(levels.getPlaceholder(level));
+				}
+			}
+			String[] placeholders = placeholderList.toArray(new String[placeholderList.size()]);
+
+			Map<String, Integer> labelDictionary = new HashMap<String, Integer>();
+			List<String> labels = new ArrayList<String>();
+			long labelBytes = 0;
+			// nodes by parent node and label index
+			Map<Long, Integer> nodesByKey = new HashMap<Long, Integer>();
+			int[] parents = new int[16];
+			int[] labelIndices = new int[16];
+			int[] nodeLevels = new int[16];
+			int nodeCount = 0;
+			String truncation = null;
+
+			for(; line != null; line = reader.readNext()) {
+				// follow the nodes the row shares with earlier rows
+				int parent = -1;
+				int level = 0;
+				while(level < columnIndices.size()) {
+					Integer labelIndex = labelDictionary.get(line[columnIndices.get(level)]);
+					Integer node = labelIndex == null ? null : nodesByKey.get(key(parent, labelIndex));
+					if(node == null) {
+						break;
+					}
+					parent = node;
+					level++;
+				}
+				if(level == columnIndices.size()) {
+					continue;
+				}
+
+				// a row is added whole or not at all
+				long newLabelBytes = 0;
+				for(int newLevel = level; newLevel < columnIndices.size(); ++newLevel) {
+					String label = line[columnIndices.get(newLevel)];
+					if(!labelDictionary.containsKey(label)) {
+						newLabelBytes += ChoiceBudget.sizeOf(label);
+					}
+				}
+				if(nodeCount + columnIndices.size() - level > MAX_NODES) {
+					truncation = String.format("more than %d distinct entries", MAX_NODES);
+					break;
+				}
+				if(labelBytes + newLabelBytes > MAX_LABEL_BYTES) {
+					truncation = String.format("more than %d bytes of distinct labels", MAX_LABEL_BYTES);
+					break;
+				}
+
+				for(; level < columnIndices.size(); ++level) {
+					String label = line[columnIndices.get(level)];
+					Integer labelIndex = labelDictionary.get(label);
+					if(labelIndex == null) {
+						labelIndex = labels.size();
+						labelDictionary.put(label, labelIndex);
+						labels.add(label);
+						labelBytes += ChoiceBudget.sizeOf(label);
+					}
+
+					if(nodeCount == parents.length) {
+						int capacity = (int) Math.min((long) nodeCount * 2, MAX_NODES);
+						parents = Arrays.copyOf(parents, capacity);
+						labelIndices = Arrays.copyOf(labelIndices, capacity);
+						nodeLevels = Arrays.copyOf(nodeLevels, capacity);
+					}
+					parents[nodeCount] = parent;
+					labelIndices[nodeCount] = labelIndex;
+					nodeLevels[nodeCount] = level;
+					nodesByKey.put(key(parent, labelIndex), nodeCount);
+					parent = nodeCount++;
+				}
+			}
+
+			MultiLevelChoiceTree tree = new MultiLevelChoiceTree(placeholders, labels.toArray(new String[labels.size()]),
+					Arrays.copyOf(parents, nodeCount), Arrays.copyOf(labelIndices, nodeCount), Arrays.copyOf(nodeLevels,
+							nodeCount));
+			if(truncation != null) {
+				tree.truncation = truncation;
+				ChoiceBudget.truncated(file.getPath(), nodeCount, labelBytes, truncation);
+			}
+			return tree;
+		}
+		finally {
+			reader.close();
+		}
+	}
+
+	private static Long key(int parent, int labelIndex) {
+		return Long.valueOf(((long) parent << 32) | (labelIndex & 0xffffffffL));
+	}
+
+	public int getNodeCount() {
+		return parents.length;
+	}
+
+	long getResidentSize() {
+		return ChoiceBudget.sizeOf(placeholders) + ChoiceBudget.sizeOf(labels) + 3L * 4 * parents.length;
+	}
+
+	/**
+	 * Whether rows were left out because the file exceeded the limits of the tree.
+	 */
+	public boolean isTruncated() {
+		return truncation != null;
+	}
+
+	String[] getPlaceholders() {
+		return placeholders;
+	}
+
+	String[] getLabels() {
+		return labels;
+	}
+
+	int[] getParents() {
+		return parents;
+	}
+
+	int[] getLabelIndices() {
+		return labelIndices;
+	}
+
+	int[] getLevels() {
+		return levels;
+	}
+
+	/**
+	 * Expands the tree into the dropdown id based form used by <code>multiLevel.jelly</code>, where every dropdown
+	 * id is <code>prefix</code> followed by the labels of all the selections leading to it.
+	 */
+	public LinkedHashMap<String, LinkedHashSet<String>> toChoicesByDropdownId(String prefix) {
+		LinkedHashMap<String, LinkedHashSet<String>> choicesByDropdownId = new LinkedHashMap<String, LinkedHashSet<String>>();
+		choicesByDropdownId.put(prefix, new LinkedHashSet<String>());
+
+		String[] dropdownIds = new String[parents.length];
+		for(int node = 0; node < parents.length; ++node) {
+			String parentId = parents[node] < 0 ? prefix : dropdownIds[parents[node]];
+			String label = labels[labelIndices[node]];
+			dropdownIds[node] = parentId + " " + label;
+
+			if(levels[node] != placeholders.length - 1) {
+				choicesByDropdownId.put(dropdownIds[node], new LinkedHashSet<String>());
+			}
+			LinkedHashSet<String> choicesForParent = choicesByDropdownId.get(parentId);
+			choicesForParent.add(placeholders[levels[node]]);
+			choicesForParent.add(label);
+		}
+		return choicesByDropdownId;
+	}
+
+	/**
+	 * Wire format for the browser: <code>placeholders</code> holds the "Select a ..." text of each level,
+	 * <code>labels</code> the label dictionary and <code>nodes</code> a flat array of
+	 * <code>parent index, label index</code> pairs, where a parent index of -1 denotes the first dropdown.
+	 * <code>truncated</code> is present and true when rows of the file were left out.
+	 */
+	public JSONObject toJSON() {
+		JSONArray nodes = new JSONArray();
+		for(int node = 0; node < parents.length; ++node) {
+			nodes.add(parents[node]);
+			nodes.add(labelIndices[node]);
+		}
+
+		JSONObject result = new JSONObject();
+		result.put("placeholders", JSONArray.fromObject(placeholders));
+		result.put("labels", JSONArray.fromObject(labels));
+		result.put("nodes", nodes);
+		if(isTruncated()) {
+			result.put("truncated", true);
+		}
+		return result;
+	}
+
+	static String sourceKey(File file, String columnNames) throws IOException {
+		return file.getCanonicalPath() + "\t" + file.lastModified() + "\t" + file.length() + "\t" + columnNames;
+	}
+}
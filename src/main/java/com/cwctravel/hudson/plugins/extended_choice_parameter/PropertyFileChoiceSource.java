@@ -0,0 +1,154 @@
+/*
+ *Copyright (c) 2013 Costco, Vimil Saju
+ *See the file license.txt for copying permission.
+ */
+
+package com.cwctravel.hudson.plugins.extended_choice_parameter;
+
+import hudson.Extension;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.Properties;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.tools.ant.Project;
+import org.apache.tools.ant.taskdefs.Property;
+
+/**
+ * Reads the delimited choices from a key of a property file or URL. The file is read no further than the input
+ * budget of {@link ChoiceBudget}; references to other properties are resolved the way Ant does.
+ */
+@Extension(ordinal = 500)
+public class PropertyFileChoiceSource extends ChoiceSource {
+	@Override
+	public boolean isApplicable(ExtendedChoiceParameterConfig config, ChoiceSpec spec) {
+		return !StringUtils.isBlank(spec.getPropertyFile()) && !StringUtils.isBlank(spec.getPropertyKey());
+	}
+
+	@Override
+	public ChoiceIterator open(ExtendedChoiceParameterConfig config, ChoiceSpec spec, int limit) throws IOException {
+		final PropertyValue property = readProperty(spec.getPropertyFile(), spec.getPropertyKey(),
+				ChoiceBudget.getMaxInputBytes());
+		if(spec.isLiteral()) {
+			if(property.cut) {
+				throw new IOException(String.format("%s of %s is larger than %d bytes", spec.getPropertyKey(),
+						spec.getPropertyFile(), ChoiceBudget.getMaxInputBytes()));
+			}
+			return ChoiceIterators.singleton(property.value);
+		}
+		return new ChoiceIterators.LineChoiceIterator(limit, null, config.getDelimiter()) {
+			private boolean read;
+
+			@Override
+			protected String readLine() {
+				if(read) {
+					return null;
+				}
+				read = true;
+				return property.value;
+			}
+
+			@Override
+			protected boolean isCut() {
+				return property.cut;
+			}
+		};
+	}
+
+	/**
+	 * The undivided value of a property, null if the file does not define it, and whether it was cut off because the
+	 * file is larger than the budget.
+	 */
+	static final class PropertyValue {
+		final String value;
+
+		final boolean cut;
+
+		PropertyValue(String value, boolean cut) {
+			this.value = value;
+			this.cut = cut;
+		}
+	}
+
+	/**
+	 * Remembers the key that was loaded last, which is the one that may have been cut off.
+	 */
+	private static final class OrderedProperties extends Properties {
+		private static final long serialVersionUID = 6526587474155618402L;
+
+		private Object lastKey;
+
+		@Override
+		public synchronized Object put(Object key, Object value) {
+			lastKey = key;
+			return super.put(key, value);
+		}
+	}
+
+	/**
+	 * Gives access to Ant's resolution of <code>${...}</code> references between properties.
+	 */
+	private static final class PropertyResolver extends Property {
+		void resolve(Properties properties) {
+			addProperties(properties);
+		}
+	}
+
+	private static PropertyValue readProperty(String propertyFilePath, String propertyKey, long maxBytes) throws IOException {
+		File propertyFile = new File(propertyFilePath);
+		InputStream inputStream;
+		boolean xml;
+		if(propertyFile.exists()) {
+			inputStream = new FileInputStream(propertyFile);
+			xml = propertyFile.getName().endsWith(".xml");
+		}
+		else {
+			URL propertyFileUrl = new URL(propertyFilePath);
+			inputStream = propertyFileUrl.openStream();
+			xml = propertyFileUrl.getFile().endsWith(".xml");
+		}
+
+		BoundedInputStream boundedInputStream = new BoundedInputStream(new BufferedInputStream(inputStream), maxBytes);
+		OrderedProperties properties = new OrderedProperties();
+		try {
+			if(xml) {
+				properties.loadFromXML(boundedInputStream);
+			}
+			else {
+				properties.load(boundedInputStream);
+			}
+		}
+		catch(IOException e) {
+			if(boundedInputStream.isCut()) {
+				// a cut off XML document cannot be parsed
+				throw new IOException(String.format("%s is larger than %d bytes", propertyFilePath, maxBytes), e);
+			}
+			throw e;
+		}
+		finally {
+			boundedInputStream.close();
+		}
+
+		Project project = new Project();
+		PropertyResolver resolver = new PropertyResolver();
+		resolver.setProject(project);
+		resolver.resolve(properties);
+		return new PropertyValue(project.getProperty(propertyKey), boundedInputStream.isCut()
+				&& propertyKey.equals(properties.lastKey));
+	}
+
+	@Override
+	public int getCostHint(ExtendedChoiceParameterConfig config, ChoiceSpec spec) {
+		return COST_IO;
+	}
+
+	@Override
+	public String getCacheKey(ExtendedChoiceParameterConfig config, ChoiceSpec spec) {
+		return spec.getPropertyFile() + '#' + spec.getPropertyKey() + (spec.isLiteral() ? " (literal)" : "");
+	}
+}
@@ -0,0 +1,121 @@
+/*
+ *Copyright (c) 2013 Costco, Vimil Saju
+ *See the file license.txt for copying permission.
+ */
+
+package com.cwctravel.hudson.plugins.extended_choice_parameter;
+
+import hudson.Extension;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+
+import org.apache.commons.lang.StringUtils;
+
+import ch.ethz.ssh2.ChannelCondition;
+import ch.ethz.ssh2.Connection;
+import ch.ethz.ssh2.Session;
+import ch.ethz.ssh2.StreamGobbler;
+
+/**
+ * Runs the configured command on the configured SSH host and takes one or more delimited choices from every
+ * line of its output, as far as the input budget of {@link ChoiceBudget} allows. Connecting and the key exchange
+ * time out after <code>connectTimeout</code> and <code>kexTimeout</code> milliseconds (system properties prefixed
+ * with the class name, 10 seconds each by default), so that an unreachable host does not hold up the build form.
+ */
+@Extension(ordinal = 300)
+public class SSHCommandChoiceSource extends ChoiceSource {
+	static final int CONNECT_TIMEOUT = Integer.getInteger(SSHCommandChoiceSource.class.getName() + ".connectTimeout",
+			10000);
+
+	static final int KEX_TIMEOUT = Integer.getInteger(SSHCommandChoiceSource.class.getName() + ".kexTimeout", 10000);
+
+	@Override
+	public boolean isApplicable(ExtendedChoiceParameterConfig config, ChoiceSpec spec) {
+		return !StringUtils.isBlank(config.getCommand()) && !StringUtils.isBlank(config.getSshHostname());
+	}
+
+	@Override
+	public ChoiceIterator open(ExtendedChoiceParameterConfig config, ChoiceSpec spec, int limit) throws IOException {
+		final String sshHostname = config.getSshHostname();
+		final String command = config.getCommand();
+
+		final Connection connection = new Connection(sshHostname);
+		boolean opened = false;
+		try {
+			connection.connect(null, CONNECT_TIMEOUT, KEX_TIMEOUT);
+
+			boolean isAuthenticated;
+			if(!StringUtils.isBlank(config.getSshPublicKey())) {
+				isAuthenticated = connection.authenticateWithPublicKey(config.getSshUsername(), config.getSshPublicKey()
+						.toCharArray(), null);
+			}
+			else {
+				isAuthenticated = connection.authenticateWithPassword(config.getSshUsername(), config.getSshPassword());
+			}
+
+			if(!isAuthenticated) {
+				throw new IOException("Authentification failed with " + sshHostname);
+			}
+
+			final Session session = connection.openSession();
+			session.execCommand(command);
+			final BoundedInputStream inputStream = new BoundedInputStream(new StreamGobbler(session.getStdout()),
+					ChoiceBudget.getMaxInputBytes());
+			final BufferedReader bufferedReader = new BufferedReader(new InputStreamReader(inputStream));
+
+			Closeable resource = new Closeable() {
+				public void close() throws IOException {
+					try {
+						bufferedReader.close();
+					}
+					finally {
+						session.close();
+						connection.close();
+					}
+				}
+			};
+
+			ChoiceIterator result = new ChoiceIterators.LineChoiceIterator(limit, resource, config.getDelimiter()) {
+				@Override
+				protected String readLine() throws IOException {
+					return bufferedReader.readLine();
+				}
+
+				@Override
+				protected boolean isCut() {
+					return inputStream.isCut();
+				}
+
+				@Override
+				protected void finish() throws IOException {
+					session.waitForCondition(ChannelCondition.EXIT_STATUS, 60000);
+					Integer exitStatus = session.getExitStatus();
+					if(exitStatus != null && exitStatus.intValue() != 0) {
+						throw new IOException(String.format("Command: %s, failed on: %s", command, sshHostname));
+					}
+				}
+			};
+			opened = true;
+			return result;
+		}
+		finally {
+			if(!opened) {
+				connection.close();
+			}
+		}
+	}
+
+	@Override
+	public int getCostHint(ExtendedChoiceParameterConfig config, ChoiceSpec spec) {
+		return COST_REMOTE;
+	}
+
+	@Override
+	public String getCacheKey(ExtendedChoiceParameterConfig config, ChoiceSpec spec) {
+		return config.getSshUsername() + '@' + config.getSshHostname() + ' ' + config.getCommand() + " ["
+				+ digestOf(config.getSshPassword(), config.getSshPublicKey()) + ']';
+	}
+}
@@ -0,0 +1,39 @@
+/*
+ *Copyright (c) 2013 Costco, Vimil Saju
+ *See the file license.txt for copying permission.
+ */
+
+package com.cwctravel.hudson.plugins.extended_choice_parameter;
+
+import hudson.Extension;
+
+import org.apache.commons.lang.StringUtils;
+
+/**
+ * Takes the choices from the delimited value entered in the job configuration.
+ */
+@Extension(ordinal = 400)
+public class ValueChoiceSource extends ChoiceSource {
+	@Override
+	public boolean isApplicable(ExtendedChoiceParameterConfig config, ChoiceSpec spec) {
+		return !StringUtils.isBlank(spec.getValue());
+	}
+
+	@Override
+	public ChoiceIterator open(ExtendedChoiceParameterConfig config, ChoiceSpec spec, int limit) {
+		if(spec.isLiteral()) {
+			return ChoiceIterators.singleton(spec.getValue());
+		}
+		return config.getDelimiter().tokenize(spec.getValue(), limit);
+	}
+
+	@Override
+	public int getCostHint(ExtendedChoiceParameterConfig config, ChoiceSpec spec) {
+		return COST_NONE;
+	}
+
+	@Override
+	public String getCacheKey(ExtendedChoiceParameterConfig config, ChoiceSpec spec) {
+		return spec.getValue();
+	}
+}
@@ -0,0 +1,147 @@
+/*
+ *Copyright (c) 2013 Costco, Vimil Saju
+ *See the file license.txt for copying permission.
+ */
+
+package com.cwctravel.hudson.plugins.extended_choice_parameter;
+
+import java.io.Serializable;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Orders version strings the way Maven does, close enough for listing choices: versions are split into numeric and
+ * alphabetic items at '.', '-' and at every transition between digits and letters; numbers compare numerically and
+ * the well-known qualifiers compare as alpha &lt; beta &lt; milestone &lt; rc &lt; snapshot &lt; release &lt; sp.
+ * Numbers of any length are compared by value, so timestamps such as <code>20231018123456789012</code> still sort
+ * as numbers.
+ * <p>
+ * {@link #compareVersions} treats equivalent versions (e.g. <code>1.0</code>, <code>1.0.0</code> and
+ * <code>1.0-final</code>) as equal. {@link #compare} orders those by their string form, so that no distinct
+ * published version is dropped from a sorted set.
+ */
+final class VersionComparator implements Comparator<String>, Serializable {
+	private static final long serialVersionUID = -6318411370785329740L;
+
+	static final VersionComparator INSTANCE = new VersionComparator();
+
+	private static final String[] QUALIFIERS = { "alpha", "beta", "milestone", "rc", "snapshot", "", "sp" };
+
+	private VersionComparator() {
+	}
+
+	public int compare(String version1, String version2) {
+		int result = compareVersions(version1, version2);
+		return result != 0 ? result : version1.compareTo(version2);
+	}
+
+	/**
+	 * Compares two versions the way Maven does, returning 0 for equivalent versions.
+	 */
+	static int compareVersions(String version1, String version2) {
+		List<Object> items1 = parse(version1);
+		List<Object> items2 = parse(version2);
+
+		int length = Math.max(items1.size(), items2.size());
+		for(int i = 0; i < length; i++) {
+			Object item1 = i < items1.size() ? items1.get(i) : null;
+			Object item2 = i < items2.size() ? items2.get(i) : null;
+			int result = compareItems(item1, item2);
+			if(result != 0) {
+				return result;
+			}
+		}
+		return 0;
+	}
+
+	// a missing item counts as 0 against a number and as a release against a qualifier
+	private static int compareItems(Object item1, Object item2) {
+		if(item1 == null) {
+			return -compareItems(item2, null);
+		}
+		if(item1 instanceof BigInteger) {
+			if(item2 == null) {
+				return ((BigInteger) item1).signum() == 0 ? 0 : 1;
+			}
+			if(item2 instanceof BigInteger) {
+				return ((BigInteger) item1).compareTo((BigInteger) item2);
+			}
+			// numbers are newer than qualifiers
+			return 1;
+		}
+		if(item2 == null) {
+			return compareQualifiers((String) item1, "");
+		}
+		if(item2 instanceof BigInteger) {
+			return -1;
+		}
+		return compareQualifiers((String) item1, (String) item2);
+	}
+
+	private static int compareQualifiers(String qualifier1, String qualifier2) {
+		int rank1 = rank(qualifier1);
+		int rank2 = rank(qualifier2);
+		if(rank1 != rank2) {
+			return rank1 < rank2 ? -1 : 1;
+		}
+		return qualifier1.compareTo(qualifier2);
+	}
+
+	// unknown qualifiers sort after all the known ones
+	private static int rank(String qualifier) {
+		for(int i = 0; i < QUALIFIERS.length; i++) {
+			if(QUALIFIERS[i].equals(qualifier)) {
+				return i;
+			}
+		}
+		return QUALIFIERS.length;
+	}
+
+	private static List<Object> parse(String version) {
+		List<Object> items = new ArrayList<Object>();
+		String lowerCase = version.toLowerCase();
+		int start = 0;
+		for(int i = 0; i <= lowerCase.length(); i++) {
+			boolean end = i == lowerCase.length();
+			char c = end ? '.' : lowerCase.charAt(i);
+			boolean separator = c == '.' || c == '-' || c == '_';
+			boolean transition = !separator && i > start && Character.isDigit(c) != Character.isDigit(lowerCase.charAt(i - 1));
+			if(separator || transition) {
+				if(i > start) {
+					items.add(item(lowerCase.substring(start, i)));
+				}
+				start = separator ? i + 1 : i;
+			}
+		}
+		// trailing zeros and release qualifiers do not make a version newer: 1.0.0 == 1.0 == 1-final
+		while(!items.isEmpty() && compareItems(items.get(items.size() - 1), null) == 0) {
+			items.remove(items.size() - 1);
+		}
+		return items;
+	}
+
+	private static Object item(String token) {
+		// tokens are split at every transition between digits and letters, so this one consists of digits only
+		if(Character.isDigit(token.charAt(0))) {
+			return new BigInteger(token);
+		}
+		if(token.equals("a")) {
+			return "alpha";
+		}
+		if(token.equals("b")) {
+			return "beta";
+		}
+		if(token.equals("m")) {
+			return "milestone";
+		}
+		if(token.equals("cr")) {
+			return "rc";
+		}
+		if(token.equals("ga") || token.equals("final") || token.equals("release")) {
+			return "";
+		}
+		return token;
+	}
+}
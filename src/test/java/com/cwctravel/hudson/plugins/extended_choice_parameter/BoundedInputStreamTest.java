@@ -0,0 +1,77 @@
+/*
+ *Copyright (c) 2013 Costco, Vimil Saju
+ *See the file license.txt for copying permission.
+ */
+
+package com.cwctravel.hudson.plugins.extended_choice_parameter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+public class BoundedInputStreamTest {
+	private static ChoiceIterators.LineChoiceIterator open(String input, int maxBytes) throws IOException {
+		final BoundedInputStream inputStream = new BoundedInputStream(new ByteArrayInputStream(input.getBytes("UTF-8")),
+				maxBytes);
+		final BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream, "UTF-8"));
+		return new ChoiceIterators.LineChoiceIterator(Integer.MAX_VALUE, reader, ChoiceDelimiter.DEFAULT) {
+			@Override
+			protected String readLine() throws IOException {
+				return reader.readLine();
+			}
+
+			@Override
+			protected boolean isCut() {
+				return inputStream.isCut();
+			}
+		};
+	}
+
+	private static List<String> read(ChoiceIterator iterator) throws IOException {
+		List<String> choices = new ArrayList<String>();
+		String choice;
+		while((choice = iterator.next()) != null) {
+			choices.add(choice);
+		}
+		iterator.close();
+		return choices;
+	}
+
+	@Test
+	public void inputWithinTheLimitIsReadWhole() throws IOException {
+		ChoiceIterators.LineChoiceIterator iterator = open("a,b,c\nd,e", 9);
+		assertEquals(Arrays.asList("a", "b", "c", "d", "e"), read(iterator));
+		assertFalse(iterator.isTruncated());
+	}
+
+	@Test
+	public void aSingleHugeLineIsCutAndLosesItsPartialChoice() throws IOException {
+		ChoiceIterators.LineChoiceIterator iterator = open("aaaa,bbbb,cccc", 7);
+		assertEquals(Arrays.asList("aaaa"), read(iterator));
+		assertTrue(iterator.isTruncated());
+	}
+
+	@Test
+	public void linesAfterTheLimitAreNotRead() throws IOException {
+		ChoiceIterators.LineChoiceIterator iterator = open("a,b,c\nd,e", 8);
+		assertEquals(Arrays.asList("a", "b", "c"), read(iterator));
+		assertTrue(iterator.isTruncated());
+	}
+
+	@Test
+	public void aQuotedChoiceIsLeftOutWhole() throws IOException {
+		ChoiceIterators.LineChoiceIterator iterator = open("\"x,y\",\"zz,w\"", 10);
+		assertEquals(Arrays.asList("x,y"), read(iterator));
+		assertTrue(iterator.isTruncated());
+	}
+}
@@ -0,0 +1,127 @@
+/*
+ *Copyright (c) 2013 Costco, Vimil Saju
+ *See the file license.txt for copying permission.
+ */
+
+package com.cwctravel.hudson.plugins.extended_choice_parameter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+public class ChoiceDelimiterTest {
+	private static void assertSplit(ChoiceDelimiter delimiter, String value, String... choices) {
+		assertEquals(value, Arrays.asList(choices), delimiter.split(value));
+	}
+
+	private static void assertSplit(String value, String... choices) {
+		assertSplit(ChoiceDelimiter.DEFAULT, value, choices);
+	}
+
+	// joins with outputDelimiter and splits the result with it as the input delimiter
+	private static void assertRoundTrip(String outputDelimiter, String... values) {
+		List<String> expected = Arrays.asList(values);
+		String joined = new ChoiceDelimiter(null, outputDelimiter).join(expected);
+		assertEquals(joined, expected, new ChoiceDelimiter(outputDelimiter, null).split(joined));
+	}
+
+	@Test
+	public void splitsAtTheDelimiter() {
+		assertSplit("a,b,c", "a", "b", "c");
+		assertSplit("single", "single");
+		assertSplit(new ChoiceDelimiter("|", null), "a,b|c", "a,b", "c");
+		assertSplit(new ChoiceDelimiter("::", null), "a:b::c::", "a:b", "c");
+	}
+
+	@Test
+	public void skipsEmptyFields() {
+		assertSplit("");
+		assertSplit(",,,");
+		assertSplit(",a,,b,", "a", "b");
+		assertSplit("a,\"\",b", "a", "b");
+		assertSplit(null);
+	}
+
+	@Test
+	public void keepsWhitespace() {
+		assertSplit(" a , b", " a ", " b");
+	}
+
+	@Test
+	public void readsQuotedChoices() {
+		assertSplit("\"a,b\",c", "a,b", "c");
+		assertSplit("\"say \"\"hi\"\"\",x", "say \"hi\"", "x");
+		assertSplit("x,\"a,b\"", "x", "a,b");
+		assertSplit(new ChoiceDelimiter("|", null), "\"a|b\"|c", "a|b", "c");
+	}
+
+	@Test
+	public void readsEscapesWithinQuotesOnly() {
+		assertSplit("\"a\\\"b\",c", "a\"b", "c");
+		assertSplit("\"C:\\\\temp\\\\\",D:\\x", "C:\\temp\\", "D:\\x");
+		assertSplit("\"C:\\temp,x\"", "C:\\temp,x");
+	}
+
+	@Test
+	public void keepsBackslashesOutsideQuotes() {
+		assertSplit("C:\\temp\\,D:\\x", "C:\\temp\\", "D:\\x");
+		assertSplit("\\\\server\\share,a\\\"b", "\\\\server\\share", "a\\\"b");
+	}
+
+	@Test
+	public void readsUnterminatedQuotesLiterally() {
+		assertSplit("\"a,b", "\"a", "b");
+		assertSplit("\"a\"b,c", "\"a\"b", "c");
+		assertSplit("a\"b,c\"", "a\"b", "c\"");
+		assertSplit("\"", "\"");
+	}
+
+	@Test
+	public void joinsWithTheOutputDelimiter() {
+		ChoiceDelimiter delimiter = new ChoiceDelimiter(",", ";");
+		assertEquals("a,b;c", delimiter.join(Arrays.asList("a,b", "c")));
+		assertEquals("\"a;b\";c", delimiter.join(Arrays.asList("a;b", "c")));
+		assertEquals("", delimiter.join(new ArrayList<String>()));
+	}
+
+	@Test
+	public void joinsSelectedValuesAsTheyAre() {
+		ChoiceDelimiter delimiter = new ChoiceDelimiter(",", ";");
+		assertEquals("a;b;\"c\";d", delimiter.joinValues(Arrays.asList("a;b", "\"c\"", "d")));
+		assertEquals("", delimiter.joinValues(new ArrayList<String>()));
+		assertEquals("a;b", delimiter.appendValueTo(new StringBuilder("a"), "b").toString());
+	}
+
+	@Test
+	public void joinedValuesSplitIntoTheSameValues() {
+		assertRoundTrip(",", "a", "b,c", "\"quoted\" word", "say \"hi\"", "C:\\temp\\",
+				"\\\\server\\share", "x,C:\\temp\\", "\"");
+		assertRoundTrip("|", "a|b", "c,d", "\"\\|\"");
+		assertRoundTrip("::", "a:b", "c::d", "e");
+	}
+
+	@Test
+	public void tokenizeStopsAtTheLimit() throws IOException {
+		ChoiceIterator iterator = ChoiceDelimiter.DEFAULT.tokenize("a,b,c", 2);
+		assertEquals("a", iterator.next());
+		assertEquals("b", iterator.next());
+		assertNull(iterator.next());
+	}
+
+	@Test
+	public void tokenizerCanBeReset() {
+		ChoiceDelimiter.Tokenizer tokenizer = ChoiceDelimiter.DEFAULT.new Tokenizer("a,\"b,c");
+		assertEquals("a", tokenizer.next());
+		assertEquals("\"b", tokenizer.next());
+		tokenizer.reset("\"d,e\",f");
+		assertEquals("d,e", tokenizer.next());
+		assertEquals("f", tokenizer.next());
+		assertNull(tokenizer.next());
+	}
+}
@@ -0,0 +1,477 @@
+/*
+ *Copyright (c) 2013 Costco, Vimil Saju
+ *See the file license.txt for copying permission.
+ */
+
+package com.cwctravel.hudson.plugins.extended_choice_parameter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import hudson.ExtensionList;
+import hudson.model.FreeStyleProject;
+import hudson.model.ParameterDefinition;
+import hudson.model.ParameterValue;
+import hudson.model.ParametersDefinitionProperty;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+import org.kohsuke.stapler.StaplerRequest;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Renders the build form and the JSON endpoints of a job with a parameter of every type and every remote source
+ * from several threads at once, while other threads submit values, and prints throughput, latency percentiles,
+ * allocations and backend calls. The command, SSH and database sources are replaced by subclasses whose backend
+ * call generates the choices, so that only the plugin is measured; the Maven source fetches from an embedded HTTP
+ * server.
+ * <p>
+ * Timings and allocations depend on the machine and are only reported. What is asserted is that the concurrent
+ * requests reached every backend exactly once, which the snapshots and the source cache guarantee as long as
+ * nothing expires, so both TTLs are raised for the run.
+ * <p>
+ * The load can be changed with system properties prefixed with
+ * <code>com.cwctravel.hudson.plugins.extended_choice_parameter.ExtendedChoiceParameterLoadTest.</code>:
+ * <code>choices</code> (number of choices of every source), <code>threads</code> and <code>iterations</code> (requests
+ * per thread).
+ */
+public class ExtendedChoiceParameterLoadTest {
+	private static final String PREFIX = ExtendedChoiceParameterLoadTest.class.getName() + ".";
+
+	private static final int CHOICES = Integer.getInteger(PREFIX + "choices", 1000);
+
+	private static final int THREADS = Integer.getInteger(PREFIX + "threads", 8);
+
+	private static final int ITERATIONS = Integer.getInteger(PREFIX + "iterations", 40);
+
+	private static final String[] TYPES = { ExtendedChoiceParameterDefinition.PARAMETER_TYPE_CHECK_BOX,
+			ExtendedChoiceParameterDefinition.PARAMETER_TYPE_RADIO, ExtendedChoiceParameterDefinition.PARAMETER_TYPE_TEXT_BOX,
+			ExtendedChoiceParameterDefinition.PARAMETER_TYPE_SINGLE_SELECT,
+			ExtendedChoiceParameterDefinition.PARAMETER_TYPE_MULTI_SELECT };
+
+	private static final String[] SOURCES = { "COMMAND", "SSH", "DB", "HTTP" };
+
+	static {
+		// set before the classes are initialized, which happens once the job is created
+		System.setProperty(ExtendedChoiceParameterDefinition.class.getName() + ".snapshotTTL", "3600000");
+		System.setProperty(ChoiceSourceCache.class.getName() + ".ttl", "3600000");
+	}
+
+	// backend calls by command, host or URL
+	private static final ConcurrentMap<String, AtomicInteger> BACKEND_CALLS = new ConcurrentHashMap<String, AtomicInteger>();
+
+	@Rule
+	public JenkinsRule j = new JenkinsRule();
+
+	private HttpServer server;
+
+	private ExecutorService serverExecutor;
+
+	private final Map<String, List<Long>> latencies = new LinkedHashMap<String, List<Long>>();
+
+	@Before
+	public void stubBackends() throws IOException {
+		BACKEND_CALLS.clear();
+		ChoiceSourceStatistics.reset();
+
+		ExtensionList<ChoiceSource> sources = j.jenkins.getExtensionList(ChoiceSource.class);
+		sources.remove(sources.get(SSHCommandChoiceSource.class));
+		sources.remove(sources.get(CommandChoiceSource.class));
+		sources.remove(sources.get(DatabaseChoiceSource.class));
+		// added instances come after the built-in sources, in this order
+		sources.add(new StubSSHCommandChoiceSource());
+		sources.add(new StubCommandChoiceSource());
+		sources.add(new StubDatabaseChoiceSource());
+
+		server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+		server.createContext("/repo/", new MetadataHandler());
+		serverExecutor = Executors.newFixedThreadPool(4);
+		server.setExecutor(serverExecutor);
+		server.start();
+	}
+
+	@After
+	public void stopServer() {
+		server.stop(0);
+		serverExecutor.shutdown();
+	}
+
+	@Test
+	public void concurrentRendersAndSubmissions() throws Exception {
+		List<ExtendedChoiceParameterDefinition> definitions = new ArrayList<ExtendedChoiceParameterDefinition>();
+		for(String source: SOURCES) {
+			for(String type: TYPES) {
+				definitions.add(createDefinition(source, type));
+			}
+		}
+		File multiLevelFile = writeMultiLevelFile();
+		definitions.add(createMultiLevelDefinition("MULTI_LEVEL_SINGLE",
+				ExtendedChoiceParameterDefinition.PARAMETER_TYPE_MULTI_LEVEL_SINGLE_SELECT, multiLevelFile));
+		definitions.add(createMultiLevelDefinition("MULTI_LEVEL_MULTI",
+				ExtendedChoiceParameterDefinition.PARAMETER_TYPE_MULTI_LEVEL_MULTI_SELECT, multiLevelFile));
+
+		FreeStyleProject project = j.createFreeStyleProject("load");
+		project.addProperty(new ParametersDefinitionProperty(new ArrayList<ParameterDefinition>(definitions)));
+
+		long allocatedBefore = allocatedBytes();
+		long start = System.nanoTime();
+		run(definitions);
+		long elapsedNanos = System.nanoTime() - start;
+		long allocatedAfter = allocatedBytes();
+
+		report(elapsedNanos, allocatedBefore, allocatedAfter);
+
+		for(ExtendedChoiceParameterDefinition definition: definitions) {
+			if(definition.getName().startsWith("MULTI_LEVEL")) {
+				// parsed once, and every request was served from the same payload
+				MultiLevelChoicePayload payload = definition.getCachedMultiLevelChoicePayload();
+				assertNotNull(definition.getName(), payload);
+				j.createWebClient().goTo("job/load/extendedChoices/" + definition.getName() + "/multiLevelChoices",
+						"application/json");
+				assertSame(definition.getName(), payload, definition.getCachedMultiLevelChoicePayload());
+			}
+			else {
+				// choices and default values share one call, however many requests there were
+				assertEquals(definition.getName(), 1, backendCalls(definition.getName()));
+			}
+		}
+	}
+
+	private void run(final List<ExtendedChoiceParameterDefinition> definitions) throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+		try {
+			final CountDownLatch startSignal = new CountDownLatch(1);
+			List<Future<Void>> futures = new ArrayList<Future<Void>>();
+			for(int t = 0; t < THREADS; t++) {
+				final int thread = t;
+				futures.add(executor.submit(new Callable<Void>() {
+					public Void call() throws Exception {
+						JenkinsRule.WebClient webClient = j.createWebClient();
+						// only the server side is measured; the dropdowns of multi-level parameters are filled in by
+						// script
+						webClient.setJavaScriptEnabled(false);
+						startSignal.await();
+						for(int i = 0; i < ITERATIONS; i++) {
+							ExtendedChoiceParameterDefinition definition = definitions.get((thread + i)
+									% definitions.size());
+							request(webClient, definition, (thread + i) % 5);
+						}
+						return null;
+					}
+				}));
+			}
+			startSignal.countDown();
+			for(Future<Void> future: futures) {
+				future.get();
+			}
+		}
+		finally {
+			executor.shutdown();
+		}
+	}
+
+	private void request(JenkinsRule.WebClient webClient, ExtendedChoiceParameterDefinition definition, int kind)
+			throws Exception {
+		long start = System.nanoTime();
+		String name;
+		switch(kind) {
+		case 0:
+			name = "build page";
+			webClient.goTo("job/load/build?delay=0sec");
+			break;
+		case 1:
+			name = "all choices";
+			webClient.goTo("job/load/extendedChoices/", "application/json");
+			break;
+		case 2:
+			name = "parameter choices";
+			if(definition.getName().startsWith("MULTI_LEVEL")) {
+				webClient.goTo("job/load/extendedChoices/" + definition.getName() + "/multiLevelChoices",
+						"application/json");
+			}
+			else {
+				webClient.goTo("job/load/extendedChoices/" + definition.getName() + "/choices", "application/json");
+			}
+			break;
+		case 3:
+			name = "form submission";
+			assertNotNull(definition.getName(), definition.createValue(null, submittedJSON(definition)));
+			break;
+		default:
+			name = "query submission";
+			ParameterValue value = definition.createValue(submittedRequest(definition));
+			if(!definition.getName().startsWith("MULTI_LEVEL")) {
+				assertNotNull(definition.getName(), value);
+			}
+			break;
+		}
+		record(name, System.nanoTime() - start);
+	}
+
+	private static JSONObject submittedJSON(ExtendedChoiceParameterDefinition definition) {
+		JSONObject result = new JSONObject();
+		result.put("name", definition.getName());
+		List<String> choices = definition.getChoiceSnapshot().getChoices();
+		if(definition.getName().startsWith("MULTI_LEVEL")) {
+			result.put("value", JSONArray.fromObject(Arrays.asList("region-1", "host-1", "service-1")));
+		}
+		else if(choices.isEmpty()) {
+			result.put("value", "");
+		}
+		else {
+			result.put("value", JSONArray.fromObject(Arrays.asList(choices.get(0), choices.get(choices.size() - 1))));
+		}
+		return result;
+	}
+
+	private static StaplerRequest submittedRequest(ExtendedChoiceParameterDefinition definition) {
+		List<String> choices = definition.getChoiceSnapshot().getChoices();
+		final String[] values = choices.isEmpty() ? new String[] { "x" } : new String[] { choices.get(0),
+				choices.get(choices.size() / 2) };
+		return (StaplerRequest) Proxy.newProxyInstance(StaplerRequest.class.getClassLoader(),
+				new Class<?>[] { StaplerRequest.class }, new InvocationHandler() {
+					public Object invoke(Object proxy, Method method, Object[] args) {
+						if(method.getName().equals("getParameterValues")) {
+							return values;
+						}
+						throw new UnsupportedOperationException(method.getName());
+					}
+				});
+	}
+
+	private synchronized void record(String name, long nanos) {
+		List<Long> list = latencies.get(name);
+		if(list == null) {
+			list = new ArrayList<Long>();
+			latencies.put(name, list);
+		}
+		list.add(nanos);
+	}
+
+	private void report(long elapsedNanos, long allocatedBefore, long allocatedAfter) {
+		int requests = 0;
+		StringBuilder report = new StringBuilder();
+		for(Map.Entry<String, List<Long>> entry: latencies.entrySet()) {
+			List<Long> sorted = new ArrayList<Long>(entry.getValue());
+			Collections.sort(sorted);
+			requests += sorted.size();
+			report.append(String.format("  %-18s %6d requests  p50 %8.2f ms  p90 %8.2f ms  p99 %8.2f ms  max %8.2f ms%n",
+					entry.getKey(), sorted.size(), percentileMillis(sorted, 50), percentileMillis(sorted, 90),
+					percentileMillis(sorted, 99), sorted.get(sorted.size() - 1) / 1000000.0));
+		}
+		double seconds = elapsedNanos / 1000000000.0;
+		System.out.println(String.format("%d requests from %d threads in %.2f s, %.1f requests/s", requests, THREADS,
+				seconds, requests / seconds));
+		System.out.print(report);
+		if(allocatedBefore >= 0 && allocatedAfter >= 0) {
+			System.out.println(String.format("  allocated %d KB, %d KB per request, on all live threads",
+					(allocatedAfter - allocatedBefore) / 1024, (allocatedAfter - allocatedBefore) / 1024 / requests));
+		}
+		for(ChoiceSourceStatistics statistics: ChoiceSourceStatistics.getSources()) {
+			System.out.println(String.format("  backend %s: %d calls, p90 %.2f ms",
+					statistics.getKey().replace('\n', ' '), statistics.getCalls(), statistics.getPercentileMillis(90)));
+		}
+		ChoiceSourceStatistics resolutions = ChoiceSourceStatistics.getResolutions();
+		System.out.println(String.format("  resolutions: %d, p90 %.2f ms", resolutions.getCalls(),
+				resolutions.getPercentileMillis(90)));
+	}
+
+	private static double percentileMillis(List<Long> sorted, int percentile) {
+		return sorted.get((int) Math.ceil(sorted.size() * percentile / 100.0) - 1) / 1000000.0;
+	}
+
+	/**
+	 * Bytes allocated so far by all live threads, or -1 if the JVM does not count them.
+	 */
+	private static long allocatedBytes() {
+		ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+		if(threadMXBean instanceof com.sun.management.ThreadMXBean) {
+			com.sun.management.ThreadMXBean sunThreadMXBean = (com.sun.management.ThreadMXBean) threadMXBean;
+			if(sunThreadMXBean.isThreadAllocatedMemorySupported() && sunThreadMXBean.isThreadAllocatedMemoryEnabled()) {
+				long total = 0;
+				for(long allocated: sunThreadMXBean.getThreadAllocatedBytes(threadMXBean.getAllThreadIds())) {
+					total += Math.max(allocated, 0);
+				}
+				return total;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Calls of the backend of the parameter <code>name</code>, whose command, host or URL contains its name.
+	 */
+	private static int backendCalls(String name) {
+		int calls = 0;
+		for(Map.Entry<String, AtomicInteger> entry: BACKEND_CALLS.entrySet()) {
+			if(entry.getKey().endsWith("/" + name)) {
+				calls += entry.getValue().get();
+			}
+		}
+		return calls;
+	}
+
+	private static void countCall(String backend) {
+		AtomicInteger calls = BACKEND_CALLS.get(backend);
+		if(calls == null) {
+			AtomicInteger created = new AtomicInteger();
+			calls = BACKEND_CALLS.putIfAbsent(backend, created);
+			if(calls == null) {
+				calls = created;
+			}
+		}
+		calls.incrementAndGet();
+	}
+
+	private ExtendedChoiceParameterDefinition createDefinition(String source, String type) {
+		String name = source + "_" + type.substring("PT_".length());
+		String command = null;
+		String sshHostname = null;
+		String dbURL = null;
+		String mavenMetadataURL = null;
+		if(source.equals("COMMAND")) {
+			command = "list/" + name;
+		}
+		else if(source.equals("SSH")) {
+			command = "list/" + name;
+			sshHostname = "stub";
+		}
+		else if(source.equals("DB")) {
+			dbURL = "jdbc:stub:/" + name;
+		}
+		else {
+			mavenMetadataURL = "http://localhost:" + server.getAddress().getPort() + "/repo/" + name;
+		}
+		return new ExtendedChoiceParameterDefinition(name, type, null, null, null, null, null, null, false, command,
+				"user", null, sshHostname, null, 5, null, dbURL, "java.lang.Object", null, "user", "select", null, ",",
+				null, null, mavenMetadataURL, null, 0, null, null, null);
+	}
+
+	private static ExtendedChoiceParameterDefinition createMultiLevelDefinition(String name, String type, File file) {
+		return new ExtendedChoiceParameterDefinition(name, type, "Region,Host,Service", file.getPath(), null, null,
+				null, null, false, null, null, null, null, null, 5, null, null, null, null, null, null, null, ",", null,
+				null, null, null, 0, null, null, null);
+	}
+
+	private static File writeMultiLevelFile() throws IOException {
+		File file = File.createTempFile("choices", ".tsv");
+		file.deleteOnExit();
+		MultiLevelChoiceIndex.sidecarOf(file).deleteOnExit();
+		Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+		try {
+			writer.write("Region\tHost\tService\n");
+			for(int i = 0; i < CHOICES; i++) {
+				writer.write("region-" + i % 10 + "\thost-" + i % 100 + "\tservice-" + i + "\n");
+			}
+		}
+		finally {
+			writer.close();
+		}
+		return file;
+	}
+
+	private static ChoiceIterator generate(final String backend) {
+		countCall(backend);
+		return new ChoiceIterator() {
+			private int count;
+
+			public String next() {
+				return count < CHOICES ? backend.substring(backend.lastIndexOf('/') + 1) + "-" + count++ : null;
+			}
+
+			public void close() {
+			}
+		};
+	}
+
+	/**
+	 * Answers for any command as if it had printed the choices.
+	 */
+	static class StubCommandChoiceSource extends CommandChoiceSource {
+		@Override
+		public ChoiceIterator open(ExtendedChoiceParameterConfig config, ChoiceSpec spec, int limit) {
+			return generate(config.getCommand());
+		}
+	}
+
+	/**
+	 * Answers for any host as if the command had printed the choices there.
+	 */
+	static class StubSSHCommandChoiceSource extends SSHCommandChoiceSource {
+		@Override
+		public ChoiceIterator open(ExtendedChoiceParameterConfig config, ChoiceSpec spec, int limit) {
+			return generate(config.getSshHostname() + ":" + config.getCommand());
+		}
+	}
+
+	/**
+	 * Answers for any database as if the query had returned the choices.
+	 */
+	static class StubDatabaseChoiceSource extends DatabaseChoiceSource {
+		@Override
+		public ChoiceIterator open(ExtendedChoiceParameterConfig config, ChoiceSpec spec, int limit) {
+			return generate(config.getDbURL());
+		}
+	}
+
+	/**
+	 * Serves <code>maven-metadata.xml</code> with the versions 1.0 to 1.N for every artifact path.
+	 */
+	private static class MetadataHandler implements HttpHandler {
+		public void handle(HttpExchange exchange) throws IOException {
+			String path = exchange.getRequestURI().getPath();
+			String artifact = path.substring(0, path.lastIndexOf('/'));
+			countCall("http:" + artifact);
+			StringBuilder metadata = new StringBuilder("<metadata><versioning><versions>");
+			for(int i = 0; i < CHOICES; i++) {
+				metadata.append("<version>1.").append(i).append("</version>");
+			}
+			byte[] body = metadata.append("</versions></versioning></metadata>").toString().getBytes("UTF-8");
+			exchange.getResponseHeaders().set("Content-Type", "text/xml");
+			exchange.sendResponseHeaders(200, body.length);
+			OutputStream outputStream = exchange.getResponseBody();
+			try {
+				outputStream.write(body);
+			}
+			finally {
+				outputStream.close();
+			}
+		}
+	}
+}
@@ -0,0 +1,181 @@
+/*
+ *Copyright (c) 2013 Costco, Vimil Saju
+ *See the file license.txt for copying permission.
+ */
+
+package com.cwctravel.hudson.plugins.extended_choice_parameter;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+public class MavenMetadataChoiceSourceTest {
+	private File directory;
+
+	private HttpServer server;
+
+	private volatile String served;
+
+	private volatile String servedETag;
+
+	private volatile int fetches;
+
+	private volatile int notModified;
+
+	@Before
+	public void createDirectory() throws IOException {
+		directory = File.createTempFile("artifact", "");
+		directory.delete();
+		directory.mkdir();
+	}
+
+	@After
+	public void cleanUp() {
+		if(server != null) {
+			server.stop(0);
+		}
+		for(File file: directory.listFiles()) {
+			file.delete();
+		}
+		directory.delete();
+	}
+
+	private static String metadata(String... versions) {
+		StringBuilder result = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<metadata>\n");
+		result.append("  <groupId>com.example</groupId>\n  <artifactId>app</artifactId>\n");
+		result.append("  <versioning>\n    <latest>ignored</latest>\n    <versions>\n");
+		for(String version: versions) {
+			result.append("      <version>").append(version).append("</version>\n");
+		}
+		return result.append("    </versions>\n  </versioning>\n</metadata>\n").toString();
+	}
+
+	private File writeMetadata(String content) throws IOException {
+		File file = new File(directory, "maven-metadata.xml");
+		Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+		try {
+			writer.write(content);
+		}
+		finally {
+			writer.close();
+		}
+		return file;
+	}
+
+	private static List<String> read(String location, String versionFilter, int newestCount) throws IOException {
+		ChoiceIterator iterator = MavenMetadataChoiceSource.open(location, versionFilter, newestCount,
+				Integer.MAX_VALUE);
+		List<String> versions = new ArrayList<String>();
+		String version;
+		while((version = iterator.next()) != null) {
+			versions.add(version);
+		}
+		iterator.close();
+		return versions;
+	}
+
+	@Test
+	public void listsTheVersionsOfADirectoryNewestFirst() throws IOException {
+		writeMetadata(metadata("1.0", "1.10", "1.2", "1.0", "2.0-SNAPSHOT", "1.0.0"));
+		assertEquals(Arrays.asList("2.0-SNAPSHOT", "1.10", "1.2", "1.0.0", "1.0"), read(directory.getPath(), null, 0));
+	}
+
+	@Test
+	public void filtersWithGlobsOrARegularExpression() throws IOException {
+		String location = writeMetadata(metadata("1.0", "1.1-SNAPSHOT", "2.0", "2.1", "10.0")).getPath();
+		assertEquals(Arrays.asList("2.1", "2.0"), read(location, "2.*", 0));
+		assertEquals(Arrays.asList("2.1", "2.0", "1.0"), read(location, "2.*, 1.0", 0));
+		assertEquals(Arrays.asList("1.1-SNAPSHOT"), read(location, "*-SNAPSHOT", 0));
+		assertEquals(Arrays.asList("10.0", "2.1", "2.0", "1.0"), read(location, "regex:\\d+\\.\\d+", 0));
+	}
+
+	@Test
+	public void keepsTheNewestMatchingVersions() throws IOException {
+		String location = writeMetadata(metadata("1.0", "1.1", "1.2", "2.0-SNAPSHOT", "2.0")).getPath();
+		assertEquals(Arrays.asList("2.0", "2.0-SNAPSHOT"), read(location, null, 2));
+		assertEquals(Arrays.asList("1.2", "1.1"), read(location, "1.*", 2));
+		assertEquals(Arrays.asList("1.2", "1.1", "1.0"), read(location, "1.*", 5));
+	}
+
+	@Test
+	public void rereadsALocalFileOnlyWhenItsModificationTimeChanges() throws IOException {
+		File file = writeMetadata(metadata("1.0"));
+		long lastModified = file.lastModified();
+		assertEquals(Arrays.asList("1.0"), read(file.getPath(), null, 0));
+
+		writeMetadata(metadata("1.0", "1.1"));
+		file.setLastModified(lastModified);
+		assertEquals(Arrays.asList("1.0"), read(file.getPath(), null, 0));
+
+		file.setLastModified(lastModified + 10000);
+		assertEquals(Arrays.asList("1.1", "1.0"), read(file.getPath(), null, 0));
+	}
+
+	@Test
+	public void fetchesAnUnchangedRemoteFileConditionally() throws IOException {
+		startServer();
+		String location = "http://localhost:" + server.getAddress().getPort() + "/repo/com/example/app/";
+		served = metadata("1.0", "1.1");
+		servedETag = "\"v1\"";
+
+		assertEquals(Arrays.asList("1.1", "1.0"), read(location, null, 0));
+		assertEquals(1, fetches);
+		assertEquals(0, notModified);
+
+		// the versions come from the index, and the server only confirms that they are still current
+		assertEquals(Arrays.asList("1.1"), read(location, null, 1));
+		assertEquals(2, fetches);
+		assertEquals(1, notModified);
+
+		served = metadata("1.0", "1.1", "1.2");
+		servedETag = "\"v2\"";
+		assertEquals(Arrays.asList("1.2", "1.1", "1.0"), read(location, null, 0));
+		assertEquals(3, fetches);
+		assertEquals(1, notModified);
+	}
+
+	private void startServer() throws IOException {
+		server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+		server.createContext("/repo/com/example/app/maven-metadata.xml", new HttpHandler() {
+			public void handle(HttpExchange exchange) throws IOException {
+				fetches++;
+				String eTag = servedETag;
+				if(eTag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+					notModified++;
+					exchange.sendResponseHeaders(304, -1);
+					exchange.close();
+					return;
+				}
+				byte[] body = served.getBytes("UTF-8");
+				exchange.getResponseHeaders().set("ETag", eTag);
+				exchange.getResponseHeaders().set("Content-Type", "text/xml");
+				exchange.sendResponseHeaders(200, body.length);
+				OutputStream outputStream = exchange.getResponseBody();
+				try {
+					outputStream.write(body);
+				}
+				finally {
+					outputStream.close();
+				}
+			}
+		});
+		server.start();
+	}
+}
@@ -0,0 +1,66 @@
+/*
+ *Copyright (c) 2013 Costco, Vimil Saju
+ *See the file license.txt for copying permission.
+ */
+
+package com.cwctravel.hudson.plugins.extended_choice_parameter;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.TreeSet;
+
+import org.junit.Test;
+
+public class VersionComparatorTest {
+	private static void assertOrder(String... versions) {
+		for(int i = 0; i + 1 < versions.length; i++) {
+			assertTrue(versions[i] + " < " + versions[i + 1],
+					VersionComparator.INSTANCE.compare(versions[i], versions[i + 1]) < 0);
+			assertTrue(versions[i + 1] + " > " + versions[i],
+					VersionComparator.INSTANCE.compare(versions[i + 1], versions[i]) > 0);
+		}
+	}
+
+	@Test
+	public void numbersCompareNumerically() {
+		assertOrder("1.2", "1.10", "2", "10.0.1");
+	}
+
+	@Test
+	public void qualifiersSortBeforeTheRelease() {
+		assertOrder("1.0-alpha-1", "1.0-beta", "1.0-m2", "1.0-rc1", "1.0-SNAPSHOT", "1.0", "1.0-sp1", "1.0.1");
+	}
+
+	@Test
+	public void numbersLongerThanALongStillCompareAsNumbers() {
+		assertOrder("1.0-alpha-1", "1.0", "20231018123456789012", "99999999999999999999", "100000000000000000000");
+		assertOrder("1.9223372036854775807", "1.9223372036854775808", "1.10000000000000000000");
+	}
+
+	@Test
+	public void equivalentVersionsCompareEqualButStayDistinct() {
+		assertEquals(0, VersionComparator.compareVersions("1.0", "1.0.0"));
+		assertEquals(0, VersionComparator.compareVersions("1.0", "1.0-final"));
+		assertEquals(0, VersionComparator.compareVersions("1-ga", "1.0.0"));
+
+		TreeSet<String> versions = new TreeSet<String>(VersionComparator.INSTANCE);
+		versions.addAll(Arrays.asList("1.0.0", "1.0", "1.0-final", "1.0", "0.9"));
+		assertArrayEquals(new String[] { "0.9", "1.0", "1.0-final", "1.0.0" }, versions.toArray());
+	}
+
+	@Test
+	public void sortingIsConsistent() {
+		List<String> versions = Arrays.asList("2.0", "1.0-rc1", "1.0", "1.0.0", "1.0-beta", "10", "1.1-SNAPSHOT", "1.1");
+		List<String> shuffled = Arrays.asList(versions.toArray(new String[versions.size()]));
+		Collections.sort(versions, VersionComparator.INSTANCE);
+		Collections.reverse(shuffled);
+		Collections.sort(shuffled, VersionComparator.INSTANCE);
+		assertEquals(versions, shuffled);
+		assertEquals(Arrays.asList("1.0-beta", "1.0-rc1", "1.0", "1.0.0", "1.1-SNAPSHOT", "1.1", "2.0", "10"), versions);
+	}
+}